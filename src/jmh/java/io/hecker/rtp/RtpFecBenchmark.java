@@ -0,0 +1,69 @@
+package io.hecker.rtp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// Measures building an FEC packet over and recovering a packet from a group of full sized packets,
+// for all group sizes from FEC_MIN_SIZE to FEC_MAX_SIZE.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RtpFecBenchmark {
+    @Param({"2", "4", "8", "16"})
+    private int m_groupSize;
+
+    private List<RtpRegularPacket> m_packets;
+    private JitterBuffer m_window;
+    private ByteBuffer m_fecData;
+    private ByteBuffer m_fecScratch;
+
+    @Setup
+    public void setUp() {
+        JpegPacketizer packetizer = new JpegPacketizer(RtpPacket.MAX_DATAGRAM_SIZE - RtpPacket.RTP_STATIC_HEADER_SIZE - RtpFecPacket.FEC_HEADER_SIZE);
+        List<ByteBuffer> payloads = packetizer.packetize(RtpPacketBenchmark.createFrame(128 * 1024));
+
+        m_packets = RtpPacketBenchmark.buildPackets(payloads.subList(0, m_groupSize), 0);
+        m_window = new JitterBuffer(32, p -> {
+        });
+
+        // The first packet of the group is the one to be recovered.
+        for (RtpRegularPacket packet : m_packets.subList(1, m_groupSize)) {
+            m_window.add(packet);
+        }
+
+        m_fecData = build().serialize();
+        m_fecScratch = ByteBuffer.allocate(m_fecData.remaining());
+    }
+
+    @Benchmark
+    public RtpFecPacket build() {
+        return RtpFecPacket.builder()
+            .withSequenceNumber(m_groupSize)
+            .withTimestamp(0)
+            .withSequenceNumberBase(0)
+            .withPackets(m_packets)
+            .build();
+    }
+
+    @Benchmark
+    public ByteBuffer buildAndSerialize() {
+        return build().serialize();
+    }
+
+    @Benchmark
+    public Optional<RtpRegularPacket> recover() {
+        // Recovery happens in place, so every invocation needs a fresh copy of the FEC packet.
+        m_fecScratch.clear();
+        m_fecScratch.put(m_fecData.duplicate());
+        m_fecScratch.flip();
+
+        return new RtpFecPacket(m_fecScratch).recover(m_window);
+    }
+}
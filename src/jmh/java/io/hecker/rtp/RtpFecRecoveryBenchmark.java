@@ -0,0 +1,86 @@
+package io.hecker.rtp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Compares recovering a packet by linearly searching the receiver queue against looking it up in a JitterBuffer.
+// The FEC packet protects the newest FEC_MAX_SIZE packets of a queue of the given size, one of which is missing.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RtpFecRecoveryBenchmark {
+    private static final int PAYLOAD_SIZE = 1400;
+
+    @Param({"16", "48", "128", "256"})
+    private int m_queueSize;
+
+    private final List<RtpRegularPacket> m_list = new ArrayList<>();
+    private JitterBuffer m_window;
+    private ByteBuffer m_fecData;
+    private ByteBuffer m_fecScratch;
+
+    @Setup
+    public void setUp() {
+        m_window = new JitterBuffer(256, p -> {
+        });
+
+        List<RtpRegularPacket> protectedPackets = new ArrayList<>();
+        int firstProtected = m_queueSize - RtpFecPacket.FEC_MAX_SIZE;
+        int missing = firstProtected + RtpFecPacket.FEC_MAX_SIZE / 2;
+
+        for (int seq = 0; seq < m_queueSize; seq++) {
+            byte[] payload = new byte[PAYLOAD_SIZE];
+            ThreadLocalRandom.current().nextBytes(payload);
+
+            RtpRegularPacket packet = RtpRegularPacket.builder()
+                .withSequenceNumber(seq)
+                .withTimestamp(seq * 40)
+                .withPayloadType(RtpPayloadType.JPEG)
+                .withPayload(ByteBuffer.wrap(payload))
+                .build();
+
+            if (seq >= firstProtected) {
+                protectedPackets.add(packet);
+            }
+            if (seq != missing) {
+                m_list.add(packet);
+                m_window.add(packet);
+            }
+        }
+
+        m_fecData = RtpFecPacket.builder()
+            .withSequenceNumber(m_queueSize)
+            .withSequenceNumberBase(firstProtected)
+            .withPackets(protectedPackets)
+            .build()
+            .serialize();
+        m_fecScratch = ByteBuffer.allocate(m_fecData.remaining());
+    }
+
+    @Benchmark
+    public Optional<RtpRegularPacket> linearSearch() {
+        return newFecPacket().recover(m_list);
+    }
+
+    @Benchmark
+    public Optional<RtpRegularPacket> indexedLookup() {
+        return newFecPacket().recover(m_window);
+    }
+
+    // Recovery happens in place, so every invocation needs a fresh copy of the FEC packet.
+    private RtpFecPacket newFecPacket() {
+        m_fecScratch.clear();
+        m_fecScratch.put(m_fecData.duplicate());
+        m_fecScratch.flip();
+        return new RtpFecPacket(m_fecScratch);
+    }
+}
@@ -0,0 +1,125 @@
+package io.hecker.rtp;
+
+import com.google.common.collect.ImmutableList;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Measures the per-frame cost of the RTP send and receive paths, each operation covering all packets of a frame.
+// The frame sizes correspond to low, medium and high quality 320x240 to 1280x720 MJPEG frames.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RtpPacketBenchmark {
+    private static final int MAX_PAYLOAD_SIZE = RtpPacket.MAX_DATAGRAM_SIZE - RtpPacket.RTP_STATIC_HEADER_SIZE - RtpFecPacket.FEC_HEADER_SIZE;
+
+    @Param({"8192", "32768", "131072"})
+    private int m_frameSize;
+
+    private final JpegPacketizer m_packetizer = new JpegPacketizer(MAX_PAYLOAD_SIZE);
+    private final JpegDepacketizer m_depacketizer = new JpegDepacketizer();
+    private ByteBuffer m_frame;
+    private List<ByteBuffer> m_payloads;
+    private List<RtpRegularPacket> m_packets;
+    private List<ByteBuffer> m_datagrams;
+    private int m_timestamp = 0;
+
+    @Setup
+    public void setUp() {
+        m_frame = createFrame(m_frameSize);
+        m_payloads = m_packetizer.packetize(m_frame);
+        m_packets = buildPackets(m_payloads, 0);
+        m_datagrams = new ArrayList<>();
+
+        for (RtpRegularPacket packet : m_packets) {
+            m_datagrams.add(packet.serialize());
+        }
+    }
+
+    @Benchmark
+    public ImmutableList<ByteBuffer> packetize() {
+        return m_packetizer.packetize(m_frame);
+    }
+
+    @Benchmark
+    public List<RtpRegularPacket> build() {
+        return buildPackets(m_payloads, 0);
+    }
+
+    @Benchmark
+    public int serialize() {
+        int length = 0;
+
+        for (RtpRegularPacket packet : m_packets) {
+            length += packet.serialize().remaining();
+        }
+
+        return length;
+    }
+
+    @Benchmark
+    public int parse() {
+        int length = 0;
+
+        for (ByteBuffer datagram : m_datagrams) {
+            length += new RtpRegularPacket(datagram).getPayload().remaining();
+        }
+
+        return length;
+    }
+
+    // Parses the datagrams and reassembles the frame just like the receiver does.
+    @Benchmark
+    public VideoFrame depacketize() {
+        VideoFrame frame = null;
+
+        // The depacketizer only emits a frame once per timestamp.
+        m_timestamp++;
+
+        for (ByteBuffer datagram : m_datagrams) {
+            datagram.putInt(4, m_timestamp);
+            frame = m_depacketizer.push(new RtpRegularPacket(datagram));
+        }
+
+        return frame;
+    }
+
+    static List<RtpRegularPacket> buildPackets(List<ByteBuffer> payloads, int firstSequenceNumber) {
+        List<RtpRegularPacket> packets = new ArrayList<>(payloads.size());
+
+        for (int i = 0, last = payloads.size() - 1; i <= last; i++) {
+            packets.add(RtpRegularPacket.builder()
+                .withSequenceNumber((firstSequenceNumber + i) & 0xffff)
+                .withTimestamp(firstSequenceNumber * 40L)
+                .withPayloadType(RtpPayloadType.JPEG)
+                .withMarker(i == last ? 1 : 0)
+                .withPayload(payloads.get(i))
+                .build());
+        }
+
+        return packets;
+    }
+
+    // Creates a baseline 320x240 JPEG frame of the given size, consisting of the SOI and SOF0 markers followed by random data.
+    static ByteBuffer createFrame(int size) {
+        byte[] bytes = new byte[size];
+        ThreadLocalRandom.current().nextBytes(bytes);
+
+        ByteBuffer frame = ByteBuffer.wrap(bytes);
+        frame.putShort((short) 0xffd8);
+        frame.putShort((short) 0xffc0);
+        frame.putShort((short) 17);
+        frame.put((byte) 8);
+        frame.putShort((short) 240);
+        frame.putShort((short) 320);
+        frame.clear();
+        return frame;
+    }
+}
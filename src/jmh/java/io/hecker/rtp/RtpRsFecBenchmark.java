@@ -0,0 +1,61 @@
+package io.hecker.rtp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Measures encoding the repair packets of and recovering as many lost packets from a block of full sized packets.
+// The throughput in bytes of media per second is the block size times MAX_DATAGRAM_SIZE divided by the time taken.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RtpRsFecBenchmark {
+    @Param({"4", "10", "16"})
+    private int m_blockSize;
+
+    @Param({"1", "3"})
+    private int m_repairCount;
+
+    private List<RtpRegularPacket> m_packets;
+    private List<RtpRsFecPacket> m_repairs;
+    private JitterBuffer m_window;
+
+    @Setup
+    public void setUp() {
+        JpegPacketizer packetizer = new JpegPacketizer(RtpPacket.MAX_DATAGRAM_SIZE - RtpPacket.RTP_STATIC_HEADER_SIZE - RtpFecPacket.FEC_HEADER_SIZE);
+        List<ByteBuffer> payloads = packetizer.packetize(RtpPacketBenchmark.createFrame(128 * 1024));
+
+        m_packets = RtpPacketBenchmark.buildPackets(payloads.subList(0, m_blockSize), 0);
+        m_window = new JitterBuffer(32, p -> {
+        });
+
+        // The first packets of the block are the ones to be recovered.
+        for (RtpRegularPacket packet : m_packets.subList(m_repairCount, m_blockSize)) {
+            m_window.add(packet);
+        }
+
+        // Parse the repair packets like a receiver would, with the "SN base" the senders assign.
+        m_repairs = new ArrayList<>(m_repairCount);
+        for (RtpRsFecPacket repair : encode()) {
+            ByteBuffer data = repair.serialize();
+            data.putShort(RtpPacket.RTP_STATIC_HEADER_SIZE + 2, (short) 0);
+            m_repairs.add(new RtpRsFecPacket(data, null));
+        }
+    }
+
+    @Benchmark
+    public List<RtpRsFecPacket> encode() {
+        return RtpRsFecPacket.encode(m_packets, m_repairCount);
+    }
+
+    @Benchmark
+    public List<RtpRegularPacket> recover() {
+        return RtpRsFecPacket.recover(m_repairs, m_window);
+    }
+}
@@ -0,0 +1,60 @@
+package io.hecker.rtp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Compares the word wide XOR kernel against the byte-by-byte loop it replaced.
+// The sizes are deliberately not multiples of 8 to include the ragged tail.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XorBenchmark {
+    @Param({"1397", "20011"})
+    private int m_size;
+
+    @Param({"false", "true"})
+    private boolean m_direct;
+
+    private ByteBuffer m_dst;
+    private ByteBuffer m_src;
+
+    @Setup
+    public void setUp() {
+        m_dst = allocate();
+        m_src = allocate();
+    }
+
+    @Benchmark
+    public ByteBuffer byteLoop() {
+        ByteBuffer dst = m_dst;
+        ByteBuffer src = m_src;
+
+        for (int i = 0, r = src.remaining(); i < r; ++i) {
+            dst.put(i, (byte) (dst.get(i) ^ src.get(i)));
+        }
+
+        return dst;
+    }
+
+    @Benchmark
+    public ByteBuffer kernel() {
+        Xor.xorInto(m_dst, m_src);
+        return m_dst;
+    }
+
+    private ByteBuffer allocate() {
+        byte[] bytes = new byte[m_size];
+        ThreadLocalRandom.current().nextBytes(bytes);
+
+        ByteBuffer bb = m_direct ? ByteBuffer.allocateDirect(m_size) : ByteBuffer.allocate(m_size);
+        bb.put(bytes);
+        bb.flip();
+        return bb;
+    }
+}
@@ -0,0 +1,60 @@
+package io.hecker.rtsp;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// Measures parsing typical requests sent by the client, including reading the headers the server looks at.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RtspRequestParserBenchmark {
+    private static final InetSocketAddress REMOTE_ADDRESS = new InetSocketAddress("127.0.0.1", 50000);
+
+    @Param({"SETUP", "PLAY"})
+    private String m_method;
+
+    private ByteBuffer m_request;
+
+    @Setup
+    public void setUp() {
+        String request;
+
+        if (m_method.equals("SETUP")) {
+            request = ""
+                + "SETUP rtsp://127.0.0.1:8554/sample.mjpeg RTSP/1.0\r\n"
+                + "CSeq: 2\r\n"
+                + "User-Agent: it2\r\n"
+                + "Transport: RTP/AVP;unicast;client_port=50000-50001\r\n"
+                + "\r\n";
+        } else {
+            request = ""
+                + "PLAY rtsp://127.0.0.1:8554/sample.mjpeg RTSP/1.0\r\n"
+                + "CSeq: 3\r\n"
+                + "User-Agent: it2\r\n"
+                + "Session: 12345678901234567890\r\n"
+                + "Range: npt=0.000-\r\n"
+                + "\r\n";
+        }
+
+        m_request = ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Benchmark
+    public void parse(Blackhole bh) {
+        m_request.rewind();
+
+        RtspIncomingRequest req = RtspRequestParser.parse(m_request, REMOTE_ADDRESS);
+        bh.consume(req.getPath());
+        bh.consume(req.headers().get(RtspHeader.CSEQ));
+        bh.consume(req.headers().get(RtspHeader.SESSION));
+        bh.consume(req.headers().get(RtspHeader.TRANSPORT));
+    }
+}
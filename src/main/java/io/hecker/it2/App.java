@@ -2,7 +2,10 @@ package io.hecker.it2;
 
 import com.google.common.net.HostAndPort;
 import com.google.common.net.HostSpecifier;
+import io.hecker.rtp.FramePrefetcher;
+import io.hecker.rtp.RtpReceiver;
 import io.hecker.rtp.RtpSender;
+import io.hecker.rtp.RtpSource;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.core.appender.ConsoleAppender;
 import org.apache.logging.log4j.core.config.Configurator;
@@ -15,7 +18,11 @@ import picocli.CommandLine.ITypeConverter;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.ParameterException;
 
+import java.io.File;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
 
 @SuppressWarnings("FieldMayBeFinal")
 @Command(name = "it2", showDefaultValues = true)
@@ -24,12 +31,46 @@ class App {
 
     @Option(names = {"-a", "--address"}, paramLabel = "<ip:port>", description = "The address to connect to")
     private InetSocketAddress m_address = new InetSocketAddress("127.0.0.1", DEFAULT_PORT);
+    @Option(names = {"-p", "--path"}, paramLabel = "<path>", description = "The resource to stream (client only)")
+    private String m_path = "/sample.mjpeg";
     @Option(names = {"-s", "--server"})
     private boolean m_server = false;
+    @Option(names = {"-n", "--load"}, paramLabel = "<sessions>", description = "Run headless with the given number of sessions and report their statistics (client only)")
+    private int m_load = 0;
+    @Option(names = {"-d", "--duration"}, paramLabel = "<seconds>", description = "The duration of the headless run")
+    private int m_duration = 30;
+    @Option(names = {"-r", "--report"}, paramLabel = "<file>", description = "Write the report of the headless run to the given file instead of stdout")
+    private File m_report = null;
+    @Option(names = {"-b", "--broadcast"}, description = "Let all sessions of a resource share a single stream (server only)")
+    private boolean m_broadcast = false;
+    @Option(names = {"-e", "--event-loops"}, paramLabel = "<count>", description = "Serve RTSP from the given number of non-blocking event loops instead of one thread per connection (server only)")
+    private int m_eventLoops = 0;
     @Option(names = {"-l", "--loss"}, paramLabel = "<loss>", description = "The artificial packet loss to add (within [0,1])")
     private double m_loss = 0;
     @Option(names = {"-f", "--fec"}, paramLabel = "<size>", description = "Enable FEC with the given payload size (within [2,16])")
     private int m_fec = 0;
+    @Option(names = {"-R", "--fec-rows"}, paramLabel = "<rows>", description = "Protect blocks of the given number of FEC rows by column FEC packets as well, which recovers burst losses (within [1,8], server only)")
+    private int m_fecRows = 1;
+    @Option(names = {"-S", "--reed-solomon"}, paramLabel = "<count>", description = "Protect each FEC group by the given number of Reed-Solomon repair packets instead of a single XOR one (within [0,16], server only)")
+    private int m_reedSolomon = 0;
+    @Option(names = {"-I", "--persist-index"}, description = "Persist the frame index of served files next to them, as <file>.idx (server only)")
+    private boolean m_persistIndex;
+    @Option(names = {"-c", "--cache-size"}, paramLabel = "<MiB>", description = "Keep the frames of the most recently streamed resources in memory, up to the given total size (server only)")
+    private long m_cacheSize = 256;
+    @Option(names = {"-P", "--prefetch-depth"}, paramLabel = "<frames>", description = "Read up to the given number of frames of each stream ahead (server only)")
+    private int m_prefetchDepth = 25;
+    @Option(names = {"-B", "--prefetch-budget"}, paramLabel = "<KiB>", description = "Read frames of each stream ahead up to the given total size (server only)")
+    private long m_prefetchBudget = 8 << 10;
+    @Option(names = {"-F", "--adaptive-fec"}, paramLabel = "<loss>", description = "Adapt the FEC size of each session to the loss its viewer reports, aiming for the given residual loss (within [0,1), server only)")
+    private double m_adaptiveFec = 0;
+    @Option(names = {"-A", "--adaptive-playout"}, description = "Size the playout delay according to the measured jitter instead of buffering a fixed number of packets (client only)")
+    private boolean m_adaptivePlayout = false;
+    @Option(names = {"-m", "--max-delay"}, paramLabel = "<ms>", description = "Discard packets instead of stalling the playout once they're delayed by more than the given time (client only)")
+    private int m_maxDelay = 0;
+    @Option(names = {"-N", "--nack"}, description = "Request lost packets to be retransmitted via RTCP NACKs, or retransmit the packets requested that way")
+    private boolean m_nack = false;
+    @Option(names = {"-D", "--downscale"}, description = "Decode frames at no more than the resolution of the window, using JPEG subsampling (client only)")
+    private boolean m_downscale;
     @Option(names = "-v", description = "-v, -vv, -vvv, or -vvvv for INFO, DEBUG, TRACE or ALL logging level")
     private boolean[] m_verbosity = {};
     @Option(names = {"-V", "--version"}, versionHelp = true, description = "Display version info")
@@ -65,13 +106,34 @@ class App {
 
         RtpSender.setSimulatedLossRate(app.m_loss);
         RtpSender.setFecSize(app.m_fec);
+        RtpSource.setFecRows(app.m_fecRows);
+        RtpSource.setFecRepairCount(app.m_reedSolomon);
+        RtpSender.setAdaptiveFecTarget(app.m_adaptiveFec);
+        RtpReceiver.setAdaptivePlayout(app.m_adaptivePlayout);
+        RtpReceiver.setMaxPlayoutDelay(app.m_maxDelay);
+        RtpReceiver.setNack(app.m_nack);
+        RtpSender.setNack(app.m_nack);
+        MjpegFile.setPersistIndex(app.m_persistIndex);
+        ResourceCache.setMaximumSize(app.m_cacheSize << 20);
+        FrameDecoder.setDownscale(app.m_downscale);
+        FramePrefetcher.setDepth(app.m_prefetchDepth);
+        FramePrefetcher.setByteBudget(app.m_prefetchBudget << 10);
 
         if (app.m_server) {
-            Server server = new Server(app.m_address);
+            Server server = new Server(app.m_address, app.m_broadcast, app.m_eventLoops);
             server.startAsync();
             server.awaitTerminated();
+        } else if (app.m_load > 0) {
+            LoadTest test = new LoadTest(app.m_address, app.m_path, app.m_load, TimeUnit.SECONDS.toMillis(app.m_duration));
+            String report = test.run();
+
+            if (app.m_report != null) {
+                Files.write(app.m_report.toPath(), report.getBytes(StandardCharsets.UTF_8));
+            } else {
+                System.out.print(report);
+            }
         } else {
-            new ClientFrame(app.m_address);
+            new ClientFrame(app.m_address, app.m_path);
         }
     }
 
@@ -3,23 +3,25 @@ package io.hecker.it2;
 import com.google.common.util.concurrent.AbstractExecutionThreadService;
 import com.google.common.util.concurrent.Monitor;
 import com.google.common.util.concurrent.MoreExecutors;
+import io.hecker.rtp.RtpPacket;
 import io.hecker.rtp.RtpReceiver;
-import io.hecker.rtp.RtpPayloadType;
-import io.hecker.rtp.RtpRegularPacket;
+import io.hecker.rtp.VideoFrame;
 import io.hecker.rtsp.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
+import java.net.BindException;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
 import java.util.function.Consumer;
 
 class Client extends AbstractExecutionThreadService {
     private static final Logger LOGGER = LogManager.getLogger();
+    private static final int MAX_BIND_ATTEMPTS = 16;
 
     private final InetSocketAddress m_address;
     private final String m_path;
-    private final Consumer<ByteBuffer> m_callback;
+    private final Consumer<VideoFrame> m_callback;
 
     private final Monitor m_playMonitor = new Monitor();
     private boolean m_play = false;
@@ -34,7 +36,7 @@ class Client extends AbstractExecutionThreadService {
     private RtpReceiver m_receiver;
     private String m_sessionId;
 
-    Client(InetSocketAddress address, String path, Consumer<ByteBuffer> callback) {
+    Client(InetSocketAddress address, String path, Consumer<VideoFrame> callback) {
         m_address = address;
         m_path = path;
         m_callback = callback;
@@ -49,10 +51,13 @@ class Client extends AbstractExecutionThreadService {
         try {
             m_thread = Thread.currentThread();
             m_client = new RtspClient(m_address);
-            m_receiver = new RtpReceiver(new InetSocketAddress(0));
+            m_receiver = createReceiver();
 
             RtspOutgoingRequest req = new RtspOutgoingRequest(RtspMethod.SETUP, m_path);
-            req.headers().set(RtspHeader.TRANSPORT, "RTP/AVP/UDP;client_port=" + m_receiver.getLocalPort());
+            req.headers().set(
+                RtspHeader.TRANSPORT,
+                "RTP/AVP/UDP;client_port=" + m_receiver.getLocalPort() + "-" + m_receiver.getLocalRtcpPort()
+            );
 
             RtspIncomingResponse res = m_client.fetch(req);
 
@@ -91,15 +96,25 @@ class Client extends AbstractExecutionThreadService {
         }
     }
 
+    // The receiver needs a pair of ports for RTP and RTCP. Any random port might be
+    // followed by one already in use though, in which case we simply try another one.
+    private static RtpReceiver createReceiver() throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return new RtpReceiver(new InetSocketAddress(0), RtpPacket.MAX_DATAGRAM_SIZE);
+            } catch (BindException e) {
+                if (attempt == MAX_BIND_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
     @Override
     protected void run() throws Exception {
         try {
             while (isRunning()) {
-                RtpRegularPacket packet = m_receiver.next();
-
-                if (packet.getPayloadType() != RtpPayloadType.JPEG) {
-                    continue;
-                }
+                VideoFrame frame = m_receiver.nextFrame();
 
                 m_playMonitor.enter();
                 try {
@@ -108,7 +123,7 @@ class Client extends AbstractExecutionThreadService {
                     m_playMonitor.leave();
                 }
 
-                m_callback.accept(packet.getPayload());
+                m_callback.accept(frame);
             }
         } catch (InterruptedException ignored) {
         }
@@ -5,12 +5,14 @@ import io.hecker.rtp.RtpReceiver;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
 
 class ClientFrame extends JFrame {
     private static final String INFO_FORMAT = ""
@@ -18,24 +20,35 @@ class ClientFrame extends JFrame {
         + "<tr><th>metric</th><th>absolute</th><th>relative</th></tr>"
         + "<tr><td>expected</td><td>%d</td><td></td></tr>"
         + "<tr><td>lost</td><td>%d</td><td>%6.2f%%</td></tr>"
+        + "<tr><td>requested</td><td>%d</td><td>%6.2f%%</td></tr>"
         + "<tr><td>recovered</td><td>%d</td><td>%6.2f%%</td></tr>"
+        + "<tr><td>reordered</td><td>%d</td><td>%6.2f%%</td></tr>"
         + "<tr><td>skipped</td><td>%d</td><td>%6.2f%%</td></tr>"
+        + "<tr><td>fraction lost</td><td></td><td>%6.2f%%</td></tr>"
+        + "<tr><td>discarded</td><td>%d</td><td>%6.2f%%</td></tr>"
+        + "<tr><td>dropped frames</td><td>%d</td><td></td></tr>"
+        + "<tr><td>stale frames</td><td>%d</td><td></td></tr>"
+        + "<tr><td>dropped paints</td><td>%d</td><td></td></tr>"
+        + "<tr><td>paint time</td><td>%.2f ms</td><td></td></tr>"
+        + "<tr><td>jitter</td><td>%.1f ms</td><td></td></tr>"
+        + "<tr><td>target delay</td><td>%.0f ms</td><td></td></tr>"
         + "</table></html>";
 
     private final Client m_client;
-    private final JLabel m_videoCanvas;
+    private final FrameDecoder m_decoder;
+    private final VideoCanvas m_videoCanvas;
     private final JLabel m_infoLabel;
     private boolean m_isPlaying;
 
-    ClientFrame(InetSocketAddress address) {
+    ClientFrame(InetSocketAddress address, String path) {
         super("RTSP client");
 
         //
         // 1. Set up the GUI
         //
 
-        m_videoCanvas = new JLabel();
-        m_videoCanvas.setText("Click here to toggle play/pause");
+        m_videoCanvas = new VideoCanvas();
+        m_videoCanvas.setMessage("Click here to toggle play/pause");
         m_videoCanvas.setFont(new Font(Font.DIALOG, Font.PLAIN, 32));
 
         m_infoLabel = new JLabel();
@@ -54,7 +67,16 @@ class ClientFrame extends JFrame {
         // 2. Set up the RTSP client and the RTP receiver
         //
 
-        m_client = new Client(address, "/sample.mjpeg", this::update);
+        // Frames are decoded off the event dispatch thread, which merely displays them.
+        m_decoder = new FrameDecoder(this::update);
+        m_videoCanvas.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                m_decoder.setTargetSize(m_videoCanvas.getWidth(), m_videoCanvas.getHeight());
+            }
+        });
+        m_decoder.setTargetSize(m_videoCanvas.getWidth(), m_videoCanvas.getHeight());
+        m_client = new Client(address, path, m_decoder::submit);
         m_client.addListener(new Service.Listener() {
             @Override
             public void running() {
@@ -99,6 +121,7 @@ class ClientFrame extends JFrame {
         try {
             m_client.stopAsync();
             m_client.awaitTerminated();
+            m_decoder.close();
             System.exit(0);
         } catch (Throwable e) {
             e.printStackTrace();
@@ -108,7 +131,7 @@ class ClientFrame extends JFrame {
 
     private void setIsPlaying(boolean isPlaying) {
         m_isPlaying = isPlaying;
-        m_videoCanvas.setText(null);
+        m_videoCanvas.setMessage(null);
 
         try {
             m_client.setPlay(isPlaying);
@@ -126,20 +149,28 @@ class ClientFrame extends JFrame {
                 receiver.getExpectedPacketCount(),
                 receiver.getPacketsLostCount(),
                 receiver.getRelativePacketsLost() * 100.0,
+                receiver.getPacketsRequestedCount(),
+                receiver.getRelativePacketsRequested() * 100.0,
                 receiver.getPacketsRecoveredCount(),
                 receiver.getRelativePacketRecovery() * 100.0,
+                receiver.getPacketsReorderedCount(),
+                receiver.getRelativePacketsReordered() * 100.0,
                 receiver.getPacketsSkippedCount(),
-                receiver.getRelativePacketsSkipped() * 100.0
+                receiver.getRelativePacketsSkipped() * 100.0,
+                receiver.getFractionLost() * 100.0,
+                receiver.getPacketsDiscardedCount(),
+                receiver.getRelativePacketsDiscarded() * 100.0,
+                receiver.getFramesDroppedCount(),
+                m_decoder.getStaleFramesCount(),
+                m_videoCanvas.getDroppedPaintCount(),
+                m_videoCanvas.getMeanPaintMillis(),
+                receiver.getJitterMillis(),
+                receiver.getTargetDelayMillis()
             )
         );
     }
 
-    private void update(ByteBuffer data) {
-        Image image = Toolkit.getDefaultToolkit().createImage(data.array(), data.arrayOffset(), data.limit());
-        EventQueue.invokeLater(() -> update(image));
-    }
-
-    private void update(Image image) {
-        m_videoCanvas.setIcon(new ImageIcon(image));
+    private void update(BufferedImage image) {
+        m_videoCanvas.setFrame(image);
     }
 }
@@ -0,0 +1,204 @@
+package io.hecker.it2;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.hecker.rtp.VideoFrame;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Decodes the JPEG frames of a stream on a small pool of threads, instead of the event dispatch thread,
+// and hands the decoded images to a consumer on the event dispatch thread.
+//
+// Only the newest image is handed over - images decoded while the consumer hasn't picked up the previous one
+// replace it, and so at most a single event is pending at any time. Frames are dropped before or after decoding
+// if a newer frame has already been handed over, or once they wait for longer than MAX_DELAY. Frames are
+// delivered at their playout time, and so either kind would only be displayed late.
+//
+// With downscaling enabled, frames larger than the target size are decoded with the largest source subsampling
+// which still fills it, e.g. every 2nd pixel of every 2nd row for a 1080p stream in a 960x540 window. That cuts
+// the decoded image's memory by the square of the factor. The JDK's decoder still performs the full inverse DCT,
+// and so decoding merely gets about 40% cheaper at a factor of 2. Every pixel of the frame is displayed,
+// and so there's no smaller source region to decode.
+@ThreadSafe
+class FrameDecoder implements AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final int THREADS = Math.min(2, Runtime.getRuntime().availableProcessors());
+    private static final long MAX_DELAY = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final AtomicBoolean DOWNSCALE = new AtomicBoolean();
+
+    private final Consumer<BufferedImage> m_consumer;
+    private final ThreadPoolExecutor m_executor;
+    // ImageReaders aren't thread-safe, but are reusable.
+    private final ThreadLocal<ImageReader> m_readers = ThreadLocal.withInitial(() -> ImageIO.getImageReadersByFormatName("jpeg").next());
+
+    private final boolean m_downscale = DOWNSCALE.get();
+    // The size frames are displayed at, packed as width << 32 | height, or 0 if unknown.
+    private final AtomicLong m_targetSize = new AtomicLong();
+
+    private final AtomicLong m_submittedCount = new AtomicLong();
+    private final AtomicLong m_staleFramesCount = new AtomicLong();
+
+    // Guards everything below
+    private final Object m_lock = new Object();
+    // The sequence number of the newest frame handed over - read without holding m_lock by isStale().
+    private volatile long m_newestHandedOver = -1;
+    // The image handed over, but not yet picked up by the consumer
+    private @Nullable BufferedImage m_pendingImage;
+
+    FrameDecoder(Consumer<BufferedImage> consumer) {
+        m_consumer = consumer;
+
+        // Once the queue is full, the oldest queued frame makes room for the new one.
+        m_executor = new ThreadPoolExecutor(
+            THREADS,
+            THREADS,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(THREADS),
+            new ThreadFactoryBuilder().setNameFormat("frame-decoder-%d").setDaemon(true).build(),
+            (r, executor) -> {
+                if (!executor.isShutdown()) {
+                    executor.getQueue().poll();
+                    m_staleFramesCount.incrementAndGet();
+                    executor.execute(r);
+                }
+            }
+        );
+    }
+
+    // Sets whether decoders created afterwards decode frames at no more than their target size.
+    static void setDownscale(boolean downscale) {
+        DOWNSCALE.set(downscale);
+    }
+
+    // Sets the size frames are displayed at, which they're scaled to fit while keeping their aspect ratio.
+    void setTargetSize(int width, int height) {
+        m_targetSize.set((long) Math.max(0, width) << 32 | Math.max(0, height));
+    }
+
+    // The number of frames dropped instead of being displayed late.
+    long getStaleFramesCount() {
+        return m_staleFramesCount.get();
+    }
+
+    void submit(VideoFrame frame) {
+        long sequenceNumber = m_submittedCount.getAndIncrement();
+        long submitTime = System.nanoTime();
+
+        m_executor.execute(() -> decode(frame.getPayload(), sequenceNumber, submitTime));
+    }
+
+    @Override
+    public void close() {
+        m_executor.shutdownNow();
+    }
+
+    private void decode(ByteBuffer data, long sequenceNumber, long submitTime) {
+        if (isStale(sequenceNumber, submitTime)) {
+            m_staleFramesCount.incrementAndGet();
+            return;
+        }
+
+        BufferedImage image;
+        ImageReader reader = m_readers.get();
+
+        try (ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(data.array(), data.arrayOffset() + data.position(), data.remaining()))) {
+            reader.setInput(in, true, true);
+
+            ImageReadParam param = reader.getDefaultReadParam();
+            if (m_downscale) {
+                // Only parses the header.
+                int subsampling = getSubsampling(reader.getWidth(0), reader.getHeight(0));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            }
+
+            image = reader.read(0, param);
+        } catch (IOException | RuntimeException e) {
+            // E.g. frames with missing packets
+            LOGGER.debug("failed to decode frame", e);
+            return;
+        } finally {
+            reader.setInput(null);
+        }
+
+        if (isStale(sequenceNumber, submitTime)) {
+            m_staleFramesCount.incrementAndGet();
+            return;
+        }
+
+        handOver(image, sequenceNumber);
+    }
+
+    // Returns the largest factor which doesn't shrink the frame below the size it's displayed at.
+    private int getSubsampling(int width, int height) {
+        long targetSize = m_targetSize.get();
+        int targetWidth = (int) (targetSize >>> 32);
+        int targetHeight = (int) targetSize;
+
+        if (targetWidth == 0 || targetHeight == 0) {
+            return 1;
+        }
+
+        // The frame is scaled by the smaller of both ratios to fit, which rounds down to the factor.
+        double scale = Math.min(targetWidth / (double) width, targetHeight / (double) height);
+        return Math.max(1, (int) (1 / scale));
+    }
+
+    private boolean isStale(long sequenceNumber, long submitTime) {
+        return sequenceNumber < m_newestHandedOver || System.nanoTime() - submitTime > MAX_DELAY;
+    }
+
+    private void handOver(BufferedImage image, long sequenceNumber) {
+        synchronized (m_lock) {
+            // Another thread might have handed over a newer frame in the meantime.
+            if (sequenceNumber < m_newestHandedOver) {
+                m_staleFramesCount.incrementAndGet();
+                return;
+            }
+
+            m_newestHandedOver = sequenceNumber;
+
+            if (m_pendingImage != null) {
+                // The consumer hasn't picked up the previous image yet and will pick up this one instead.
+                m_pendingImage = image;
+                m_staleFramesCount.incrementAndGet();
+                return;
+            }
+
+            m_pendingImage = image;
+        }
+
+        EventQueue.invokeLater(this::consume);
+    }
+
+    private void consume() {
+        BufferedImage image;
+
+        synchronized (m_lock) {
+            image = m_pendingImage;
+            m_pendingImage = null;
+        }
+
+        if (image != null) {
+            m_consumer.accept(image);
+        }
+    }
+}
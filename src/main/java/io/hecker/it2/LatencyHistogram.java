@@ -0,0 +1,52 @@
+package io.hecker.it2;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Records latencies with a resolution of one millisecond.
+// Latencies outside of [0,MAX_LATENCY_MS] are clamped into that range.
+@ThreadSafe
+class LatencyHistogram {
+    private static final int MAX_LATENCY_MS = 60_000;
+
+    private final AtomicLongArray m_buckets = new AtomicLongArray(MAX_LATENCY_MS + 1);
+    private final AtomicLong m_count = new AtomicLong();
+    private final AtomicLong m_sum = new AtomicLong();
+
+    void record(long latencyMillis) {
+        int bucket = (int) Math.max(0, Math.min(latencyMillis, MAX_LATENCY_MS));
+        m_buckets.getAndIncrement(bucket);
+        m_count.getAndIncrement();
+        m_sum.getAndAdd(bucket);
+    }
+
+    long getCount() {
+        return m_count.get();
+    }
+
+    double getMean() {
+        long count = getCount();
+        return count > 0 ? (double) m_sum.get() / count : 0;
+    }
+
+    // Returns the smallest latency which at least the given fraction (within [0,1]) of all recorded latencies don't exceed.
+    long getPercentile(double fraction) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+
+        for (int i = 0; i <= MAX_LATENCY_MS; i++) {
+            seen += m_buckets.get(i);
+            if (seen >= rank) {
+                return i;
+            }
+        }
+
+        return MAX_LATENCY_MS;
+    }
+}
@@ -0,0 +1,212 @@
+package io.hecker.it2;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Service;
+import io.hecker.rtp.RtpReceiver;
+import io.hecker.rtp.VideoFrame;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Opens a number of sessions against a server and reports their aggregate throughput, packet loss and latency.
+// The frames are only counted and never decoded, which allows a single machine to simulate hundreds of viewers.
+//
+// The latency of a frame is the time it got delivered by the RtpReceiver minus the time the server was supposed
+// to send it: Since the server starts streaming as soon as it receives the PLAY request, the first frame is expected
+// to be sent at the time the PLAY request was sent, and every following one after its timestamp delta.
+class LoadTest {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final String REPORT_FORMAT = ""
+        + "sessions           %d (%d failed)\n"
+        + "duration           %.1f s\n"
+        + "frames             %d (%.1f/s)\n"
+        + "bytes              %d (%.2f MiB/s)\n"
+        + "expected packets   %d\n"
+        + "lost packets       %d (%.2f%%)\n"
+        + "requested packets  %d (%.2f%%)\n"
+        + "recovered packets  %d (%.2f%%)\n"
+        + "reordered packets  %d (%.2f%%)\n"
+        + "skipped packets    %d (%.2f%%)\n"
+        + "discarded packets  %d (%.2f%%)\n"
+        + "dropped frames     %d\n"
+        + "jitter             mean=%.1f ms\n"
+        + "target delay       mean=%.0f ms\n"
+        + "latency            mean=%.1f p50=%d p90=%d p99=%d p99.9=%d max=%d ms\n";
+
+    private final InetSocketAddress m_address;
+    private final String m_path;
+    private final int m_sessionCount;
+    private final long m_durationMillis;
+
+    private final LatencyHistogram m_latencies = new LatencyHistogram();
+
+    LoadTest(InetSocketAddress address, String path, int sessionCount, long durationMillis) {
+        m_address = address;
+        m_path = path;
+        m_sessionCount = sessionCount;
+        m_durationMillis = durationMillis;
+    }
+
+    // Runs the test and returns its report.
+    String run() throws InterruptedException {
+        List<Session> sessions = new ArrayList<>(m_sessionCount);
+        int failedCount = 0;
+
+        for (int i = 0; i < m_sessionCount; i++) {
+            Session session = new Session();
+
+            try {
+                session.m_client.startAsync().awaitRunning();
+                sessions.add(session);
+            } catch (IllegalStateException e) {
+                LOGGER.error("failed to set up session", e);
+                failedCount++;
+            }
+        }
+
+        long startTime = System.nanoTime();
+
+        for (Session session : sessions) {
+            try {
+                session.play();
+            } catch (Exception e) {
+                LOGGER.error("failed to start session", e);
+                session.m_client.stopAsync();
+            }
+        }
+
+        TimeUnit.MILLISECONDS.sleep(m_durationMillis);
+
+        // Take a snapshot before tearing the sessions down, which takes a while for large numbers of sessions.
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        long frames = 0;
+        long bytes = 0;
+        long expected = 0;
+        long lost = 0;
+        long requested = 0;
+        long recovered = 0;
+        long reordered = 0;
+        long discarded = 0;
+        long dropped = 0;
+        double jitter = 0;
+        double targetDelay = 0;
+
+        for (Session session : sessions) {
+            if (!session.m_client.isRunning()) {
+                failedCount++;
+            }
+
+            RtpReceiver receiver = session.m_client.getReceiver();
+            frames += session.m_frames.get();
+            bytes += session.m_bytes.get();
+            expected += receiver.getExpectedPacketCount();
+            lost += receiver.getPacketsLostCount();
+            requested += receiver.getPacketsRequestedCount();
+            recovered += receiver.getPacketsRecoveredCount();
+            reordered += receiver.getPacketsReorderedCount();
+            discarded += receiver.getPacketsDiscardedCount();
+            dropped += receiver.getFramesDroppedCount();
+            jitter += receiver.getJitterMillis();
+            targetDelay += receiver.getTargetDelayMillis();
+        }
+
+        String report = String.format(
+            REPORT_FORMAT,
+            m_sessionCount,
+            failedCount,
+            seconds,
+            frames,
+            frames / seconds,
+            bytes,
+            bytes / seconds / (1024 * 1024),
+            expected,
+            lost,
+            fraction(lost, expected) * 100.0,
+            requested,
+            fraction(requested, expected) * 100.0,
+            recovered,
+            fraction(recovered, expected) * 100.0,
+            reordered,
+            fraction(reordered, expected) * 100.0,
+            lost - recovered - reordered,
+            fraction(lost - recovered - reordered, expected) * 100.0,
+            discarded,
+            fraction(discarded, expected) * 100.0,
+            dropped,
+            jitter / Math.max(1, sessions.size()),
+            targetDelay / Math.max(1, sessions.size()),
+            m_latencies.getMean(),
+            m_latencies.getPercentile(0.5),
+            m_latencies.getPercentile(0.9),
+            m_latencies.getPercentile(0.99),
+            m_latencies.getPercentile(0.999),
+            m_latencies.getPercentile(1.0)
+        );
+
+        for (Session session : sessions) {
+            session.m_client.stopAsync();
+        }
+        for (Session session : sessions) {
+            try {
+                session.m_client.awaitTerminated();
+            } catch (IllegalStateException ignored) {
+            }
+        }
+
+        return report;
+    }
+
+    private static double fraction(long numerator, long denominator) {
+        return denominator == 0 ? 0.0 : (double) numerator / denominator;
+    }
+
+    private class Session implements Consumer<VideoFrame> {
+        private final Client m_client = new Client(m_address, m_path, this);
+        private final AtomicLong m_frames = new AtomicLong();
+        private final AtomicLong m_bytes = new AtomicLong();
+
+        // NOTE: Only to be accessed from the client's thread after play() has been called
+        private long m_playTime;
+        private long m_firstTimestamp;
+        private boolean m_gotFirstTimestamp = false;
+
+        Session() {
+            m_client.addListener(new Service.Listener() {
+                @Override
+                public void failed(Service.State from, Throwable failure) {
+                    LOGGER.error("session failed", failure);
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        void play() throws Exception {
+            // Published to the client's thread by the monitor inside setPlay().
+            m_playTime = System.nanoTime();
+            m_client.setPlay(true);
+        }
+
+        @Override
+        public void accept(VideoFrame frame) {
+            long now = System.nanoTime();
+
+            if (!m_gotFirstTimestamp) {
+                m_firstTimestamp = frame.getTimestamp();
+                m_gotFirstTimestamp = true;
+            }
+
+            // Timestamps are in milliseconds and may wrap around.
+            long timestampDelta = (int) (frame.getTimestamp() - m_firstTimestamp);
+            long sendTime = m_playTime + TimeUnit.MILLISECONDS.toNanos(timestampDelta);
+
+            m_latencies.record(TimeUnit.NANOSECONDS.toMillis(now - sendTime));
+            m_frames.getAndIncrement();
+            m_bytes.getAndAdd(frame.getPayload().remaining());
+        }
+    }
+}
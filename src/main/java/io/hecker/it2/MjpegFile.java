@@ -0,0 +1,317 @@
+package io.hecker.it2;
+
+import com.google.common.collect.AbstractIterator;
+import io.hecker.rtp.RtpPayloadType;
+import io.hecker.rtp.VideoClip;
+import io.hecker.rtp.VideoFrame;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+// A memory-mapped .mjpeg file, the frames of which are zero-copy slices of the mapping.
+//
+// Unlike MjpegParser, serving the file requires neither reads nor allocations per frame, since all frames are
+// located by an index built when opening the file, and any number of sessions can iterate the same instance.
+// The pages of the file are shared via the OS page cache as well. The index can be persisted next to the file
+// (as "<file>.idx"), which saves touching every frame's header upon opening large files.
+//
+// Resources which can't be mapped, like the sample embedded inside the .jar, are read onto the heap instead.
+//
+// Every frame is a JPEG of its own, and so streaming can start at any of them. Starting at a timestamp looks up
+// its frame by a binary search over the index, without touching any frames before it.
+@ThreadSafe
+class MjpegFile implements VideoClip {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final AtomicBoolean PERSIST_INDEX = new AtomicBoolean();
+
+    private static final int LENGTH_SIZE = 5;
+    // A mapping can't exceed 2 GiB - larger files are mapped as several segments, each starting at a frame.
+    private static final long MAX_SEGMENT_SIZE = 1 << 30;
+
+    private static final int INDEX_MAGIC = 0x4d4a4958; // "MJIX"
+    private static final int INDEX_VERSION = 1;
+
+    // null if read from a stream
+    private final @Nullable Path m_path;
+    private final long m_size;
+    private final long m_lastModified;
+    private final VideoFrame[] m_frames;
+    // The total size of all frames
+    private final long m_payloadSize;
+
+    private MjpegFile(@Nullable Path path, long size, long lastModified, VideoFrame[] frames) {
+        m_path = path;
+        m_size = size;
+        m_lastModified = lastModified;
+        m_frames = frames;
+
+        long payloadSize = 0;
+        for (VideoFrame frame : frames) {
+            payloadSize += frame.getPayload().remaining();
+        }
+        m_payloadSize = payloadSize;
+    }
+
+    // Sets whether files opened afterwards persist their index next to them.
+    static void setPersistIndex(boolean persist) {
+        PERSIST_INDEX.set(persist);
+    }
+
+    static MjpegFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long lastModified = Files.getLastModifiedTime(path).toMillis();
+            Path indexPath = path.resolveSibling(path.getFileName() + ".idx");
+
+            int[] lengths = readIndex(indexPath, size, lastModified);
+            if (lengths == null) {
+                lengths = buildIndex(channel, size);
+
+                if (PERSIST_INDEX.get()) {
+                    writeIndex(indexPath, size, lastModified, lengths);
+                }
+            }
+
+            // The mapping stays valid after closing the channel.
+            return new MjpegFile(path, size, lastModified, mapFrames(channel, lengths));
+        }
+    }
+
+    // Reads all frames of the given stream onto the heap and closes it.
+    static MjpegFile read(InputStream in) throws IOException {
+        List<VideoFrame> frames = new ArrayList<>();
+
+        try (MjpegParser parser = new MjpegParser(in)) {
+            while (parser.hasNext()) {
+                VideoFrame frame = parser.next();
+                frames.add(new VideoFrame(frame.getPayloadType(), frame.getPayload().asReadOnlyBuffer(), frame.getTimestamp()));
+            }
+        }
+
+        return new MjpegFile(null, 0, 0, frames.toArray(new VideoFrame[0]));
+    }
+
+    // Whether the file was modified since opening it. It has to be reopened then, since the frames don't match
+    // the index anymore, and accessing a mapping beyond the end of a truncated file crashes the JVM.
+    boolean isStale() {
+        if (m_path == null) {
+            return false;
+        }
+
+        try {
+            return Files.size(m_path) != m_size || Files.getLastModifiedTime(m_path).toMillis() != m_lastModified;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    int getFrameCount() {
+        return m_frames.length;
+    }
+
+    long getPayloadSize() {
+        return m_payloadSize;
+    }
+
+    @Override
+    public long getDuration() {
+        return m_frames.length == 0 ? 0 : m_frames[m_frames.length - 1].getTimestamp() + MjpegParser.TIMESTAMP_INCREMENT;
+    }
+
+    @Override
+    public Iterator<VideoFrame> frames(long timestamp, double scale) {
+        checkArgument(scale != 0 && !Double.isNaN(scale), "invalid scale");
+
+        // The n-th frame returned is the one at n * |scale| frames from the first, rounded down, e.g. every 2nd
+        // frame at scale 2, and 2 of every 3 frames at scale 1.5. Rounding the scale itself would send more frames
+        // per second than at scale 1, e.g. every 2nd frame at scale 2.4. Slow motion doesn't repeat any frames.
+        double stride = Math.max(1, Math.abs(scale));
+        int first = scale > 0 ? ceilingIndex(timestamp) : ceilingIndex(timestamp + 1) - 1;
+        int direction = scale > 0 ? 1 : -1;
+
+        return new AbstractIterator<VideoFrame>() {
+            private long m_count = 0;
+
+            @Override
+            protected VideoFrame computeNext() {
+                long index = first + direction * (long) Math.floor(m_count * stride);
+                if (index < 0 || index >= m_frames.length) {
+                    return endOfData();
+                }
+
+                m_count++;
+                return m_frames[(int) index];
+            }
+        };
+    }
+
+    // Returns the index of the first frame at or after the given timestamp, or the frame count if there's none.
+    private int ceilingIndex(long timestamp) {
+        int low = 0;
+        int high = m_frames.length;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (m_frames[mid].getTimestamp() < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    // Like MjpegParser, the first incomplete frame ends the file.
+    private static int[] buildIndex(FileChannel channel, long size) throws IOException {
+        ByteBuffer lengthBytes = ByteBuffer.allocate(LENGTH_SIZE);
+        int[] lengths = new int[16];
+        int count = 0;
+        long offset = 0;
+
+        while (offset + LENGTH_SIZE <= size) {
+            lengthBytes.clear();
+            while (lengthBytes.hasRemaining()) {
+                if (channel.read(lengthBytes, offset + lengthBytes.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+
+            int length;
+            try {
+                length = Integer.parseUnsignedInt(new String(lengthBytes.array(), StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                break;
+            }
+
+            if (offset + LENGTH_SIZE + length > size) {
+                break;
+            }
+
+            if (count == lengths.length) {
+                lengths = Arrays.copyOf(lengths, count * 2);
+            }
+
+            lengths[count++] = length;
+            offset += LENGTH_SIZE + length;
+        }
+
+        return Arrays.copyOf(lengths, count);
+    }
+
+    private static VideoFrame[] mapFrames(FileChannel channel, int[] lengths) throws IOException {
+        // Group the frames into segments first, to map each of those exactly once.
+        List<long[]> segments = new ArrayList<>();
+        long segmentStart = 0;
+        long offset = 0;
+
+        for (int length : lengths) {
+            long end = offset + LENGTH_SIZE + length;
+            if (end - segmentStart > MAX_SEGMENT_SIZE) {
+                segments.add(new long[]{segmentStart, offset});
+                segmentStart = offset;
+            }
+            offset = end;
+        }
+        segments.add(new long[]{segmentStart, offset});
+
+        VideoFrame[] frames = new VideoFrame[lengths.length];
+        int i = 0;
+
+        for (long[] segment : segments) {
+            MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, segment[0], segment[1] - segment[0]);
+            int position = 0;
+
+            while (position < mapping.capacity()) {
+                ByteBuffer payload = mapping.duplicate();
+                payload.position(position + LENGTH_SIZE);
+                payload.limit(position + LENGTH_SIZE + lengths[i]);
+
+                frames[i] = new VideoFrame(RtpPayloadType.JPEG, payload.slice(), (long) i * MjpegParser.TIMESTAMP_INCREMENT);
+                position += LENGTH_SIZE + lengths[i];
+                i++;
+            }
+        }
+
+        return frames;
+    }
+
+    // Returns null if there's no index or it doesn't match the file (anymore).
+    @Nullable
+    private static int[] readIndex(Path indexPath, long size, long lastModified) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION || in.readLong() != size || in.readLong() != lastModified) {
+                return null;
+            }
+
+            int count = in.readInt();
+            if (count < 0 || (long) count * LENGTH_SIZE > size) {
+                return null;
+            }
+
+            int[] lengths = new int[count];
+            long total = 0;
+
+            for (int i = 0; i < count; i++) {
+                lengths[i] = in.readInt();
+                total += LENGTH_SIZE + lengths[i];
+
+                if (lengths[i] < 0 || total > size) {
+                    return null;
+                }
+            }
+
+            return lengths;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOGGER.debug("failed to read index {}", indexPath, e);
+            return null;
+        }
+    }
+
+    // Writes a temporary file first, so that concurrent readers never see a partial index.
+    private static void writeIndex(Path indexPath, long size, long lastModified, int[] lengths) {
+        Path tmpPath = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPath)))) {
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(INDEX_VERSION);
+                out.writeLong(size);
+                out.writeLong(lastModified);
+                out.writeInt(lengths.length);
+
+                for (int length : lengths) {
+                    out.writeInt(length);
+                }
+            }
+
+            Files.move(tmpPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // E.g. a read-only directory - the index is merely an optimization.
+            LOGGER.debug("failed to write index {}", indexPath, e);
+
+            try {
+                Files.deleteIfExists(tmpPath);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -13,7 +13,7 @@ import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 class MjpegParser extends AbstractIterator<VideoFrame> implements Closeable {
-    private static final int TIMESTAMP_INCREMENT = 40;
+    static final int TIMESTAMP_INCREMENT = 40;
 
     private @Nullable InputStream m_inputStream;
     private long m_timestamp;
@@ -0,0 +1,64 @@
+package io.hecker.it2;
+
+import com.google.common.cache.Cache;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+// Holds the frames of the most recently streamed resources, so that sessions of a popular resource share the same
+// immutable frames, instead of each of them reading and parsing it from scratch.
+//
+// The cache is bounded by the total size of the cached frames and evicts the least recently used resources first.
+// Sources keep streaming the frames of an evicted resource, which are released once the last of them stops.
+@ThreadSafe
+class ResourceCache {
+    // Weights are counted in KiB, since Guava's weights are ints. Every resource weighs at least 1,
+    // since Guava never evicts resources weighing 0.
+    private static final int WEIGHT_UNIT = 1024;
+    private static final AtomicLong MAXIMUM_SIZE = new AtomicLong(256L << 20);
+
+    private final Cache<String, MjpegFile> m_cache = CacheBuilder.newBuilder()
+        .maximumWeight(MAXIMUM_SIZE.get() / WEIGHT_UNIT)
+        .weigher((String path, MjpegFile file) -> (int) Math.min(Integer.MAX_VALUE, file.getPayloadSize() / WEIGHT_UNIT + 1))
+        .build();
+
+    // Sets the total size in bytes of the frames each cache created afterwards may hold, with 0 disabling caching.
+    static void setMaximumSize(long bytes) {
+        checkArgument(bytes >= 0, "Expected bytes to be >= 0 but was %s", bytes);
+        MAXIMUM_SIZE.set(bytes);
+    }
+
+    // Returns the cached frames of the given resource, or loads them unless they were modified since.
+    MjpegFile get(String path, Loader loader) throws IOException {
+        MjpegFile file = m_cache.getIfPresent(path);
+
+        if (file != null) {
+            if (!file.isStale()) {
+                return file;
+            }
+
+            m_cache.asMap().remove(path, file);
+        }
+
+        try {
+            return m_cache.get(path, loader::load);
+        } catch (ExecutionException | UncheckedExecutionException | ExecutionError e) {
+            // Rethrow e.g. RtspServerExceptions as is
+            Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IOException(e.getCause());
+        }
+    }
+
+    interface Loader {
+        MjpegFile load() throws IOException;
+    }
+}
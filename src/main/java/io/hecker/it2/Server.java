@@ -5,32 +5,60 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.net.InetAddresses;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.Service;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.hecker.rtp.RtcpChannel;
 import io.hecker.rtp.RtpPayloadType;
 import io.hecker.rtp.RtpSender;
+import io.hecker.rtp.RtpSource;
 import io.hecker.rtsp.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import javax.annotation.Nullable;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
 import java.security.SecureRandom;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.stream.Collectors;
 
 class Server extends RtspServer {
     private static final Logger LOGGER = LogManager.getLogger();
     private static final String SAMPLE_PATH = "/sample.mjpeg";
     private static final String SAMPLE_NAME = SAMPLE_PATH.substring(1);
+    private static final int SENDER_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final double MAX_SCALE = 16;
 
     private final SecureRandom m_sessionIdGenerator = new SecureRandom();
+    private final ScheduledThreadPoolExecutor m_senderExecutor = new ScheduledThreadPoolExecutor(
+        SENDER_THREADS,
+        new ThreadFactoryBuilder().setNameFormat("rtp-sender-%d").setDaemon(true).build()
+    );
+    // Reads the frames of the sources ahead, see FramePrefetcher. Reads may block, hence the unbounded pool.
+    private final ExecutorService m_prefetchExecutor = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setNameFormat("frame-prefetcher-%d").setDaemon(true).build()
+    );
     private final Map<Long, RtpSender> m_sessions = new ConcurrentHashMap<>();
+    // Exchanges the RTCP reports of all sessions.
+    private final RtcpChannel m_rtcpChannel;
+    private final boolean m_broadcast;
+    // NOTE: Only to be accessed while holding its monitor
+    private final Map<String, RtpSource> m_sources = new HashMap<>();
+    // The frames of the resources streamed recently, which are shared by all sources streaming them.
+    private final ResourceCache m_resources = new ResourceCache();
 
     private final Map<RtspMethod, RtspServerHandler> m_handlers = ImmutableMap.<RtspMethod, RtspServerHandler>builder()
         .put(RtspMethod.OPTIONS, this::handleOptions)
@@ -41,9 +69,34 @@ class Server extends RtspServer {
         .put(RtspMethod.PAUSE, this::handlePause)
         .build();
 
-    Server(InetSocketAddress address) throws IOException {
-        super(address);
+    // In broadcast mode all sessions for the same resource share a single RtpSource,
+    // instead of each of them streaming the resource from its beginning.
+    // See RtspServer for the meaning of eventLoopCount.
+    Server(InetSocketAddress address, boolean broadcast, int eventLoopCount) throws IOException {
+        super(address, eventLoopCount);
+        m_broadcast = broadcast;
+        m_rtcpChannel = new RtcpChannel(new InetSocketAddress(address.getAddress(), 0));
         addHandler(this::handle);
+
+        // Paused and torn down senders cancel their pending tick - don't keep those around.
+        m_senderExecutor.setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    protected void startUp() {
+        m_rtcpChannel.startAsync().awaitRunning();
+        super.startUp();
+    }
+
+    @Override
+    protected void shutDown() throws Exception {
+        try {
+            super.shutDown();
+        } finally {
+            m_senderExecutor.shutdownNow();
+            m_prefetchExecutor.shutdownNow();
+            m_rtcpChannel.stopAsync().awaitTerminated();
+        }
     }
 
     private void handle(RtspIncomingRequest req, RtspOutgoingResponse res) throws Exception {
@@ -104,16 +157,15 @@ class Server extends RtspServer {
             throw new RtspServerException(RtspStatus.UNSUPPORTED_TRANSPORT, "only RTP/AVP/UDP is currently supported");
         }
 
+        // Either a single port, which implies the RTCP port to be the following one, or a "rtp-rtcp" port range.
         int clientPort = -1;
+        int clientRtcpPort = -1;
 
         for (String p : transportParameters) {
             if (p.startsWith("client_port=")) {
-                try {
-                    clientPort = Integer.parseUnsignedInt(p.substring(12));
-                } catch (NumberFormatException e) {
-                    clientPort = Integer.MAX_VALUE;
-                }
-
+                List<String> ports = Splitter.on('-').limit(2).splitToList(p.substring(12));
+                clientPort = parsePort(ports.get(0));
+                clientRtcpPort = ports.size() > 1 ? parsePort(ports.get(1)) : clientPort + 1;
                 break;
             }
         }
@@ -121,83 +173,225 @@ class Server extends RtspServer {
         if (clientPort == -1) {
             throw new RtspServerException(RtspStatus.UNSUPPORTED_TRANSPORT, "client_port required");
         }
-        if (clientPort > 65535) {
+        if (clientPort > 65535 || clientRtcpPort > 65535) {
             throw new RtspServerException(RtspStatus.UNSUPPORTED_TRANSPORT, "invalid client_port");
         }
 
         //
-        // 2. Open the specified file
+        // 2. Find the source of the specified file or open a new one
         //
 
         if (!req.getPath().endsWith(".mjpeg")) {
             throw new RtspServerException(RtspStatus.UNSUPPORTED_MEDIA_TYPE, "only .mjpeg is currently supported");
         }
 
-        InputStream in;
+        InetSocketAddress target = new InetSocketAddress(req.getRemoteAddress().getAddress(), clientPort);
+        InetSocketAddress rtcpTarget = new InetSocketAddress(req.getRemoteAddress().getAddress(), clientRtcpPort);
+        long sessionId;
+
+        // In broadcast mode sources are shared between sessions. This lock makes sure that
+        // a source losing its last sender isn't stopped while a new one subscribes to it.
+        synchronized (m_sources) {
+            RtpSource source = m_broadcast ? m_sources.get(req.getPath()) : null;
+            boolean created = false;
+
+            if (source == null || !source.isRunning()) {
+                source = openSource(req.getPath());
+                created = true;
+            }
+
+            //
+            // 3. Set up and run a new RtpSender instance
+            //
+
+            RtpSender sender;
 
-        // sample.mjpeg is directly embedded inside the .jar
-        if (req.getPath().equals(SAMPLE_PATH)) {
-            in = Server.class.getClassLoader().getResourceAsStream(SAMPLE_NAME);
-        } else {
             try {
-                String relativePath = req.getPath().substring(1);
-                in = new FileInputStream(relativePath);
-            } catch (FileNotFoundException e) {
-                throw new RtspServerException(RtspStatus.NOT_FOUND, "resource not found");
+                sender = new RtpSender(target, rtcpTarget, source, m_rtcpChannel);
+            } catch (Throwable e) {
+                if (created) {
+                    source.stopAsync();
+                }
+                throw e;
             }
+
+            sessionId = registerRtpSender(sender);
+
+            RtpSource senderSource = source;
+            sender.addListener(new Service.Listener() {
+                @Override
+                public void terminated(State from) {
+                    deregisterRtpSender(sessionId);
+                    releaseSource(senderSource);
+                }
+
+                @Override
+                public void failed(State from, Throwable failure) {
+                    LOGGER.error("sender failed", failure);
+                    terminated(from);
+                }
+            }, MoreExecutors.directExecutor());
+
+            sender.startAsync().awaitRunning();
         }
 
         //
-        // 3. Set up and run a new RtpSender instance
+        // 4. Done!
         //
 
-        InetSocketAddress target = new InetSocketAddress(req.getRemoteAddress().getAddress(), clientPort);
-        MjpegParser stream = new MjpegParser(in);
-        RtpSender sender;
+        res.headers().set(RtspHeader.SESSION, Long.toUnsignedString(sessionId));
+        res.headers().set(RtspHeader.TRANSPORT, "RTP/AVP/UDP;unicast;client_port=" + clientPort + "-" + clientRtcpPort);
+    }
 
+    private static int parsePort(String port) {
         try {
-            sender = new RtpSender(target, stream);
-        } catch (Throwable e) {
-            stream.close();
-            throw e;
+            return Integer.parseUnsignedInt(port);
+        } catch (NumberFormatException e) {
+            return Integer.MAX_VALUE;
         }
+    }
 
-        long sessionId = registerRtpSender(sender);
+    private RtpSource openSource(String path) throws IOException {
+        RtpSource source = new RtpSource(openResource(path), m_senderExecutor, m_prefetchExecutor);
 
-        sender.addListener(new Service.Listener() {
+        source.addListener(new Service.Listener() {
             @Override
             public void terminated(State from) {
-                deregisterRtpSender(sessionId);
-
-                try {
-                    stream.close();
-                } catch (IOException e) {
-                    LOGGER.error("failed to close stream", e);
+                synchronized (m_sources) {
+                    m_sources.remove(path, source);
                 }
             }
 
             @Override
             public void failed(State from, Throwable failure) {
-                LOGGER.error("sender failed", failure);
+                LOGGER.error("source failed", failure);
                 terminated(from);
             }
         }, MoreExecutors.directExecutor());
 
-        sender.startAsync();
+        source.startAsync();
 
-        //
-        // 4. Done!
-        //
+        if (m_broadcast) {
+            m_sources.put(path, source);
+        }
 
-        res.headers().set(RtspHeader.SESSION, Long.toUnsignedString(sessionId));
+        return source;
+    }
+
+    private MjpegFile openResource(String path) throws IOException {
+        return m_resources.get(path, () -> {
+            // sample.mjpeg is directly embedded inside the .jar and can't be mapped
+            if (path.equals(SAMPLE_PATH)) {
+                return MjpegFile.read(Server.class.getClassLoader().getResourceAsStream(SAMPLE_NAME));
+            }
+
+            try {
+                String relativePath = path.substring(1);
+                return MjpegFile.open(Paths.get(relativePath));
+            } catch (NoSuchFileException | AccessDeniedException | InvalidPathException e) {
+                throw new RtspServerException(RtspStatus.NOT_FOUND, "resource not found");
+            }
+        });
+    }
+
+    // Stops the source once its last sender is gone.
+    private void releaseSource(RtpSource source) {
+        synchronized (m_sources) {
+            if (source.getSenderCount() == 0) {
+                source.stopAsync();
+            }
+        }
     }
 
     private void handleTeardown(RtspIncomingRequest req, RtspOutgoingResponse res) {
         getRTSPSenderForRequest(req).stopAsync();
     }
 
+    // Seeks and changes the scale, if requested. In broadcast mode sources are shared and can't be
+    // seeked by a single session, and so Range and Scale are ignored, as permitted by RFC 2326.
+    // The Speed header isn't supported and ignored as well.
     private void handlePlay(RtspIncomingRequest req, RtspOutgoingResponse res) {
-        getRTSPSenderForRequest(req).setContinue(true);
+        RtpSender sender = getRTSPSenderForRequest(req);
+        Optional<String> range = req.headers().get(RtspHeader.RANGE);
+        Optional<String> scale = req.headers().get(RtspHeader.SCALE);
+
+        if (!m_broadcast && (range.isPresent() || scale.isPresent())) {
+            RtpSource source = sender.getSource();
+            Long timestamp = range.isPresent() ? parseNptStart(range.get()) : null;
+            double actualScale = scale.isPresent() ? parseScale(scale.get()) : 1;
+            long duration = source.getDuration();
+
+            if (timestamp != null && timestamp > duration) {
+                throw new RtspServerException(RtspStatus.INVALID_RANGE, "range exceeds the resource");
+            }
+
+            long start;
+            try {
+                start = source.play(timestamp, actualScale);
+            } catch (IllegalStateException e) {
+                throw new RtspServerException(RtspStatus.METHOD_NOT_VALID_IN_THIS_STATE, "end of stream reached");
+            }
+
+            long end = actualScale > 0 ? duration : 0;
+            res.headers().set(RtspHeader.RANGE, String.format(Locale.ROOT, "npt=%.3f-%.3f", start / 1000.0, end / 1000.0));
+
+            if (scale.isPresent()) {
+                res.headers().set(RtspHeader.SCALE, Double.toString(actualScale));
+            }
+        }
+
+        sender.setContinue(true);
+    }
+
+    // Returns the start of the given "npt" range in milliseconds, or null for "now", see RFC 2326 section 3.6.
+    // The end of the range is ignored, i.e. streams always play until the end or their next PAUSE.
+    @Nullable
+    private static Long parseNptStart(String range) {
+        if (!range.startsWith("npt=")) {
+            throw new RtspServerException(RtspStatus.HEADER_FIELD_NOT_VALID_FOR_RESOURCE, "only npt ranges are supported");
+        }
+
+        int dash = range.indexOf('-');
+        if (dash == -1) {
+            throw new RtspServerException(RtspStatus.BAD_REQUEST, "invalid range");
+        }
+
+        String start = range.substring(4, dash).trim();
+        if (start.isEmpty() || start.equals("now")) {
+            return null;
+        }
+
+        try {
+            // Either seconds or hours:minutes:seconds, with seconds including an optional fraction
+            double seconds = 0;
+            for (String part : Splitter.on(':').limit(3).split(start)) {
+                double value = Double.parseDouble(part);
+                if (!(value >= 0) || Double.isInfinite(value)) {
+                    throw new NumberFormatException();
+                }
+                seconds = seconds * 60 + value;
+            }
+
+            return Math.round(seconds * 1000);
+        } catch (NumberFormatException e) {
+            throw new RtspServerException(RtspStatus.BAD_REQUEST, "invalid range");
+        }
+    }
+
+    // Scales beyond MAX_SCALE are clamped to it, which RFC 2326 permits by returning the actual scale.
+    private static double parseScale(String scale) {
+        double value;
+        try {
+            value = Double.parseDouble(scale.trim());
+        } catch (NumberFormatException e) {
+            throw new RtspServerException(RtspStatus.BAD_REQUEST, "invalid scale");
+        }
+
+        if (value == 0 || Double.isNaN(value)) {
+            throw new RtspServerException(RtspStatus.BAD_REQUEST, "invalid scale");
+        }
+
+        return Math.max(-MAX_SCALE, Math.min(MAX_SCALE, value));
     }
 
     private void handlePause(RtspIncomingRequest req, RtspOutgoingResponse res) {
@@ -0,0 +1,48 @@
+package io.hecker.rtp;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+// A bounded pool of equally sized buffers.
+// At most `capacity` buffers are retained - acquiring from an empty pool allocates a new buffer,
+// which will be retained on release as long as the pool isn't full. As such a consumer which
+// holds on to at most `capacity` buffers at a time will not allocate in its steady state.
+@ThreadSafe
+class BufferPool {
+    private final int m_bufferSize;
+    private final boolean m_direct;
+    private final BlockingQueue<ByteBuffer> m_buffers;
+
+    BufferPool(int bufferSize, int capacity, boolean direct) {
+        checkArgument(bufferSize > 0, "Expected bufferSize to be positive but was %d", bufferSize);
+        checkArgument(capacity > 0, "Expected capacity to be positive but was %d", capacity);
+
+        m_bufferSize = bufferSize;
+        m_direct = direct;
+        m_buffers = new ArrayBlockingQueue<>(capacity);
+    }
+
+    int getBufferSize() {
+        return m_bufferSize;
+    }
+
+    ByteBuffer acquire() {
+        ByteBuffer bb = m_buffers.poll();
+
+        if (bb == null) {
+            bb = m_direct ? ByteBuffer.allocateDirect(m_bufferSize) : ByteBuffer.allocate(m_bufferSize);
+        }
+
+        bb.clear();
+        return bb;
+    }
+
+    void release(ByteBuffer bb) {
+        checkArgument(bb.capacity() == m_bufferSize, "buffer does not belong to this pool");
+        m_buffers.offer(bb);
+    }
+}
@@ -0,0 +1,55 @@
+package io.hecker.rtp;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+// Chooses the FEC group size of a session from the loss its viewer reports via RTCP, such that the loss
+// remaining after FEC recovery stays below a target rate at the lowest bandwidth overhead possible.
+//
+// XOR based FEC (RFC 5109) recovers a lost packet of a group of k packets, as long as none of the other k packets
+// sharing the same FEC packet, including the FEC packet itself, got lost. For independent losses at a rate of p
+// this leaves a residual loss rate of p * (1 - (1 - p)^k). Since the overhead of 1/k shrinks with the group size,
+// the largest k whose residual loss stays below the target is chosen. FEC is turned off entirely if the loss rate
+// is below the target already. If even the smallest group size doesn't suffice, it's used as the best effort.
+@NotThreadSafe
+class FecController {
+    // The weight of a new report within the smoothed loss rate.
+    private static final double LOSS_GAIN = 0.25;
+
+    private final double m_targetResidualLoss;
+    private boolean m_initialized = false;
+    private double m_lossRate = 0;
+
+    FecController(double targetResidualLoss) {
+        m_targetResidualLoss = targetResidualLoss;
+    }
+
+    // Returns the group size to use from now on, with 0 meaning no FEC at all.
+    int onReport(double fractionLost) {
+        if (m_initialized) {
+            m_lossRate += (fractionLost - m_lossRate) * LOSS_GAIN;
+        } else {
+            m_lossRate = fractionLost;
+            m_initialized = true;
+        }
+
+        if (m_lossRate <= m_targetResidualLoss) {
+            return 0;
+        }
+
+        for (int size = RtpFecPacket.FEC_MAX_SIZE; size > RtpFecPacket.FEC_MIN_SIZE; size--) {
+            if (residualLoss(m_lossRate, size) <= m_targetResidualLoss) {
+                return size;
+            }
+        }
+
+        return RtpFecPacket.FEC_MIN_SIZE;
+    }
+
+    double getLossRate() {
+        return m_lossRate;
+    }
+
+    static double residualLoss(double lossRate, int size) {
+        return lossRate * (1 - Math.pow(1 - lossRate, size));
+    }
+}
@@ -0,0 +1,163 @@
+package io.hecker.rtp;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+// Reads the frames of a stream ahead on an I/O executor, so that a stalling stream, e.g. a file missing the
+// page cache, doesn't delay the pacing thread. Frames are queued up to a depth and a total size - whichever
+// is reached first - and fetching resumes once the queue has drained below half of either.
+//
+// The payloads of fetched frames are touched once per page, which faults in memory-mapped frames on the
+// I/O thread as well, instead of once the packetizer reads them.
+@ThreadSafe
+public class FramePrefetcher {
+    private static final AtomicInteger DEPTH = new AtomicInteger(25);
+    private static final AtomicLong BYTE_BUDGET = new AtomicLong(8 << 20);
+    private static final int PAGE_SIZE = 4096;
+
+    private final Iterator<VideoFrame> m_stream;
+    private final Executor m_executor;
+    private final int m_depth = DEPTH.get();
+    private final long m_byteBudget = BYTE_BUDGET.get();
+
+    // Guards everything below. The stream itself is only accessed by the single running fetch task.
+    private final Object m_lock = new Object();
+    private final ArrayDeque<VideoFrame> m_queue = new ArrayDeque<>();
+    private long m_queuedBytes;
+    private boolean m_fetching;
+    private boolean m_endOfStream;
+    private boolean m_closed;
+    private @Nullable Throwable m_failure;
+
+    // Keeps the JIT from eliding touching the pages.
+    @SuppressWarnings("unused")
+    private volatile int m_touched;
+
+    FramePrefetcher(Iterator<VideoFrame> stream, Executor executor) {
+        m_stream = stream;
+        m_executor = executor;
+
+        synchronized (m_lock) {
+            unsafeFetchMaybe();
+        }
+    }
+
+    // Sets the maximum number of frames prefetched by sources created afterwards.
+    public static void setDepth(int depth) {
+        checkArgument(depth >= 1, "Expected depth to be >= 1 but was %d", depth);
+        DEPTH.set(depth);
+    }
+
+    // Sets the maximum total size of the frames prefetched by sources created afterwards.
+    // At least a single frame is prefetched regardless.
+    public static void setByteBudget(long bytes) {
+        checkArgument(bytes >= 0, "Expected bytes to be >= 0 but was %s", bytes);
+        BYTE_BUDGET.set(bytes);
+    }
+
+    // Returns the next frame, or null if none has been fetched yet or the end of the stream has been reached.
+    // Rethrows any failure of the stream.
+    @Nullable
+    VideoFrame poll() {
+        synchronized (m_lock) {
+            if (m_failure != null) {
+                throw new IllegalStateException("prefetching failed", m_failure);
+            }
+
+            VideoFrame frame = m_queue.poll();
+            if (frame != null) {
+                m_queuedBytes -= frame.getPayload().remaining();
+                unsafeFetchMaybe();
+            }
+
+            return frame;
+        }
+    }
+
+    // Whether poll() won't return any further frames.
+    boolean isExhausted() {
+        synchronized (m_lock) {
+            return m_endOfStream && m_queue.isEmpty();
+        }
+    }
+
+    // Stops fetching. The queued frames are dropped.
+    void close() {
+        synchronized (m_lock) {
+            m_closed = true;
+            m_queue.clear();
+            m_queuedBytes = 0;
+        }
+    }
+
+    private void unsafeFetchMaybe() {
+        if (m_fetching || m_endOfStream || m_closed) {
+            return;
+        }
+
+        if (m_queue.size() > m_depth / 2 || m_queuedBytes > m_byteBudget / 2) {
+            return;
+        }
+
+        m_fetching = true;
+        m_executor.execute(this::fetch);
+    }
+
+    private boolean unsafeIsFull() {
+        return m_queue.size() >= m_depth || (!m_queue.isEmpty() && m_queuedBytes >= m_byteBudget);
+    }
+
+    private void fetch() {
+        while (true) {
+            synchronized (m_lock) {
+                if (m_closed || unsafeIsFull()) {
+                    m_fetching = false;
+                    return;
+                }
+            }
+
+            VideoFrame frame = null;
+            Throwable failure = null;
+
+            try {
+                if (m_stream.hasNext()) {
+                    frame = m_stream.next();
+                    touch(frame.getPayload());
+                }
+            } catch (Throwable e) {
+                frame = null;
+                failure = e;
+            }
+
+            synchronized (m_lock) {
+                if (frame == null) {
+                    m_failure = failure;
+                    m_endOfStream = true;
+                    m_fetching = false;
+                    return;
+                }
+
+                if (!m_closed) {
+                    m_queue.add(frame);
+                    m_queuedBytes += frame.getPayload().remaining();
+                }
+            }
+        }
+    }
+
+    private void touch(ByteBuffer payload) {
+        int sum = 0;
+        for (int i = payload.position(); i < payload.limit(); i += PAGE_SIZE) {
+            sum += payload.get(i);
+        }
+        m_touched = sum;
+    }
+}
@@ -0,0 +1,67 @@
+package io.hecker.rtp;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+// Arithmetic in GF(2^8) modulo the polynomial x^8 + x^4 + x^3 + x^2 + 1, as used by most Reed-Solomon codes.
+//
+// Addition is XOR. Multiplication and division go through log/exp tables, while the symbol kernel uses a full
+// table of products (64 KiB), since multiplying a symbol by a constant then takes a single lookup per byte
+// into the constant's 256 byte row, which stays in the L1 cache.
+final class GaloisField {
+    private static final int POLYNOMIAL = 0x11d;
+
+    private static final int[] EXP = new int[2 * 255];
+    private static final int[] LOG = new int[256];
+    private static final byte[][] PRODUCTS = new byte[256][256];
+
+    static {
+        for (int i = 0, x = 1; i < 255; i++) {
+            EXP[i] = x;
+            EXP[i + 255] = x;
+            LOG[x] = i;
+
+            x <<= 1;
+            if (x > 0xff) {
+                x ^= POLYNOMIAL;
+            }
+        }
+
+        for (int a = 1; a < 256; a++) {
+            for (int b = 1; b < 256; b++) {
+                PRODUCTS[a][b] = (byte) EXP[LOG[a] + LOG[b]];
+            }
+        }
+    }
+
+    private GaloisField() {
+    }
+
+    static int multiply(int a, int b) {
+        return PRODUCTS[a][b] & 0xff;
+    }
+
+    static int inverse(int a) {
+        checkArgument(a != 0, "0 has no inverse");
+        return EXP[255 - LOG[a]];
+    }
+
+    // Adds the product of the coefficient and length bytes of src to as many bytes of dst.
+    static void multiplyAddInto(byte[] dst, int dstOffset, byte[] src, int srcOffset, int length, int coefficient) {
+        if (coefficient == 0) {
+            return;
+        }
+
+        if (coefficient == 1) {
+            for (int i = 0; i < length; i++) {
+                dst[dstOffset + i] ^= src[srcOffset + i];
+            }
+            return;
+        }
+
+        byte[] products = PRODUCTS[coefficient];
+
+        for (int i = 0; i < length; i++) {
+            dst[dstOffset + i] ^= products[src[srcOffset + i] & 0xff];
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package io.hecker.rtp;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+// A fixed size ring of packets indexed by their extended sequence number.
+//
+// RTP sequence numbers are only 16 bit wide and wrap around every couple of minutes. Each incoming
+// sequence number is thus extended to 64 bit by picking the value closest to the highest one seen so far
+// (see RFC 3550, appendix A.1), which makes ordering wrap-around safe and lets us use it as a ring index.
+//
+// Insertion and lookup are O(1). Removing the head is O(1) amortized,
+// since the search for the next head only ever moves forward over gaps.
+@NotThreadSafe
+class JitterBuffer extends AbstractCollection<RtpRegularPacket> {
+    private final RtpRegularPacket[] m_slots;
+    private final int m_mask;
+    private final Consumer<RtpRegularPacket> m_evicted;
+
+    private int m_size;
+    private boolean m_initialized;
+    // Sequence number of the next packet to be played out - everything before it is too late.
+    private long m_head;
+    // Sequence number of the first packet in the buffer - only valid if m_size > 0.
+    private long m_first;
+    // Highest sequence number seen so far.
+    private long m_highest;
+
+    // Packets which have to make room for newer ones, because they
+    // are more than `capacity` packets apart, are passed to `evicted`.
+    JitterBuffer(int capacity, Consumer<RtpRegularPacket> evicted) {
+        checkArgument(capacity > 0 && Integer.bitCount(capacity) == 1, "Expected capacity to be a power of 2 but was %d", capacity);
+
+        m_slots = new RtpRegularPacket[capacity];
+        m_mask = capacity - 1;
+        m_evicted = evicted;
+    }
+
+    int capacity() {
+        return m_slots.length;
+    }
+
+    long extend(int sequenceNumber) {
+        if (!m_initialized) {
+            return sequenceNumber;
+        }
+
+        return m_highest + (short) (sequenceNumber - (int) m_highest);
+    }
+
+    // Returns false if the packet is a duplicate or its playout time has already passed.
+    @Override
+    public boolean add(RtpRegularPacket packet) {
+        long seq = extend(packet.getSequenceNumber());
+
+        if (!m_initialized) {
+            m_head = seq;
+            m_highest = seq;
+            m_initialized = true;
+        }
+
+        if (seq < m_head) {
+            return false;
+        }
+
+        if (seq - m_head >= m_slots.length) {
+            evictUntil(seq - m_slots.length + 1);
+        }
+
+        int idx = index(seq);
+        if (m_slots[idx] != null) {
+            return false;
+        }
+
+        m_slots[idx] = packet;
+
+        if (m_size == 0 || seq < m_first) {
+            m_first = seq;
+        }
+
+        m_highest = Math.max(m_highest, seq);
+        m_size++;
+        return true;
+    }
+
+    @Nullable
+    RtpRegularPacket get(long seq) {
+        if (seq < m_head || seq - m_head >= m_slots.length) {
+            return null;
+        }
+
+        return m_slots[index(seq)];
+    }
+
+    @Nullable
+    RtpRegularPacket peek() {
+        return m_size != 0 ? m_slots[index(m_first)] : null;
+    }
+
+    @Nullable
+    RtpRegularPacket poll() {
+        if (m_size == 0) {
+            return null;
+        }
+
+        int idx = index(m_first);
+        RtpRegularPacket packet = m_slots[idx];
+
+        m_slots[idx] = null;
+        m_size--;
+        m_head = m_first + 1;
+
+        if (m_size != 0) {
+            do {
+                m_first++;
+            } while (m_slots[index(m_first)] == null);
+        }
+
+        return packet;
+    }
+
+    @Override
+    public int size() {
+        return m_size;
+    }
+
+    @Override
+    public Iterator<RtpRegularPacket> iterator() {
+        return new Iterator<RtpRegularPacket>() {
+            private long m_seq = m_first;
+            private int m_remaining = m_size;
+
+            @Override
+            public boolean hasNext() {
+                return m_remaining != 0;
+            }
+
+            @Override
+            public RtpRegularPacket next() {
+                if (m_remaining == 0) {
+                    throw new NoSuchElementException();
+                }
+
+                RtpRegularPacket packet;
+                while ((packet = m_slots[index(m_seq++)]) == null) {
+                }
+
+                m_remaining--;
+                return packet;
+            }
+        };
+    }
+
+    private void evictUntil(long head) {
+        while (m_size != 0 && m_first < head) {
+            m_evicted.accept(poll());
+        }
+
+        m_head = Math.max(m_head, head);
+    }
+
+    private int index(long seq) {
+        return (int) seq & m_mask;
+    }
+}
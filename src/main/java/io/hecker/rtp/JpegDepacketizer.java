@@ -0,0 +1,85 @@
+package io.hecker.rtp;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Reassembles the frames split up by JpegPacketizer.
+// Packets have to be pushed in sequence order. Frames with missing fragments are dropped.
+@NotThreadSafe
+class JpegDepacketizer {
+    private final AtomicLong m_framesDroppedCount = new AtomicLong();
+
+    private ByteBuffer m_buffer = ByteBuffer.allocate(64 * 1024);
+    private long m_timestamp;
+    private boolean m_started = false;
+    private boolean m_finished = false;
+    private boolean m_broken = false;
+
+    long getFramesDroppedCount() {
+        return m_framesDroppedCount.get();
+    }
+
+    // Returns the frame once its last fragment has been pushed. The frame's payload is owned by the caller.
+    @Nullable
+    VideoFrame push(RtpRegularPacket packet) {
+        long timestamp = packet.getTimestamp();
+
+        if (!m_started || timestamp != m_timestamp) {
+            // The previous frame never got its last fragment.
+            if (m_started && !m_finished) {
+                m_framesDroppedCount.getAndIncrement();
+            }
+
+            m_buffer.clear();
+            m_timestamp = timestamp;
+            m_started = true;
+            m_finished = false;
+            m_broken = false;
+        }
+
+        if (m_finished) {
+            return null;
+        }
+
+        ByteBuffer payload = packet.getPayload();
+
+        if (payload.remaining() < JpegPacketizer.JPEG_HEADER_SIZE || JpegPacketizer.getFragmentOffset(payload) != m_buffer.position()) {
+            m_broken = true;
+        }
+
+        if (!m_broken) {
+            append(JpegPacketizer.getFragment(payload));
+        }
+
+        if (packet.getMarker() == 0) {
+            return null;
+        }
+
+        m_finished = true;
+
+        if (m_broken) {
+            m_framesDroppedCount.getAndIncrement();
+            return null;
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(m_buffer.position());
+        m_buffer.flip();
+        frame.put(m_buffer);
+        frame.flip();
+
+        return new VideoFrame(packet.getPayloadType(), frame, timestamp);
+    }
+
+    private void append(ByteBuffer fragment) {
+        if (m_buffer.remaining() < fragment.remaining()) {
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(2 * m_buffer.capacity(), m_buffer.position() + fragment.remaining()));
+            m_buffer.flip();
+            buffer.put(m_buffer);
+            m_buffer = buffer;
+        }
+
+        m_buffer.put(fragment);
+    }
+}
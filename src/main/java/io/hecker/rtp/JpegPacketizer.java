@@ -0,0 +1,133 @@
+package io.hecker.rtp;
+
+import com.google.common.collect.ImmutableList;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+// Splits JPEG frames into fragments prefixed with the main JPEG header of RFC 2435, section 3.1.
+// https://tools.ietf.org/html/rfc2435#section-3.1
+//
+// RFC 2435 normally strips the JFIF headers and lets the receiver regenerate them from the Type and Q fields.
+// That only works for frames using the default Huffman tables, which we can't guarantee for arbitrary .mjpeg files.
+// We thus keep the complete JFIF stream in-band and mark it as such using a Type of the dynamically assigned range.
+class JpegPacketizer {
+    static final int JPEG_HEADER_SIZE = 8;
+    static final int TYPE_JFIF = 128;
+
+    private static final int MAX_FRAGMENT_OFFSET = 0xffffff;
+    private static final int MAX_DIMENSION = 255 * 8;
+
+    private final int m_maxFragmentSize;
+
+    // maxPayloadSize is the maximum size of each RTP payload, including the JPEG header.
+    JpegPacketizer(int maxPayloadSize) {
+        checkArgument(maxPayloadSize > JPEG_HEADER_SIZE, "maxPayloadSize too small");
+        m_maxFragmentSize = maxPayloadSize - JPEG_HEADER_SIZE;
+    }
+
+    static int getFragmentOffset(ByteBuffer payload) {
+        int p = payload.position();
+        return (payload.get(p + 1) & 0xff) << 16 | (payload.get(p + 2) & 0xff) << 8 | payload.get(p + 3) & 0xff;
+    }
+
+    static ByteBuffer getFragment(ByteBuffer payload) {
+        ByteBuffer fragment = payload.duplicate();
+        fragment.position(fragment.position() + JPEG_HEADER_SIZE);
+        return fragment.slice();
+    }
+
+    // Returns the payloads for the given frame in order. The last one has to be sent with the marker bit set.
+    ImmutableList<ByteBuffer> packetize(ByteBuffer frame) {
+        frame = frame.duplicate().order(ByteOrder.BIG_ENDIAN);
+
+        int length = frame.remaining();
+        checkArgument(length <= MAX_FRAGMENT_OFFSET, "frame too large");
+
+        int width = 0;
+        int height = 0;
+        {
+            int sof = findStartOfFrame(frame);
+            if (sof != -1) {
+                // The SOF segment consists of: marker (2), length (2), precision (1), height (2), width (2)
+                height = frame.getShort(sof + 5) & 0xffff;
+                width = frame.getShort(sof + 7) & 0xffff;
+            }
+
+            // Dimensions which can't be represented are left as 0 - the JFIF header contains them anyways.
+            if (width > MAX_DIMENSION || height > MAX_DIMENSION) {
+                width = 0;
+                height = 0;
+            }
+        }
+
+        ImmutableList.Builder<ByteBuffer> builder = ImmutableList.builderWithExpectedSize((length + m_maxFragmentSize - 1) / m_maxFragmentSize);
+        int base = frame.position();
+        int offset = 0;
+
+        do {
+            int fragmentSize = Math.min(m_maxFragmentSize, length - offset);
+
+            frame.limit(base + offset + fragmentSize);
+            frame.position(base + offset);
+
+            ByteBuffer bb = ByteBuffer.allocate(JPEG_HEADER_SIZE + fragmentSize);
+            bb.order(ByteOrder.BIG_ENDIAN);
+
+            // Type-specific (8 bit, always 0) and fragment offset (24 bit)
+            bb.putInt(offset);
+            bb.put((byte) TYPE_JFIF);
+            // Q - unused, since the quantization tables are part of the JFIF stream
+            bb.put((byte) 0);
+            bb.put((byte) ((width + 7) / 8));
+            bb.put((byte) ((height + 7) / 8));
+            bb.put(frame);
+
+            bb.flip();
+            builder.add(bb);
+
+            offset += fragmentSize;
+        } while (offset < length);
+
+        return builder.build();
+    }
+
+    // Walks the JPEG segments up to the start of scan and returns
+    // the absolute index of the SOF0, SOF1 or SOF2 marker or -1.
+    private static int findStartOfFrame(ByteBuffer frame) {
+        int i = frame.position();
+        int end = frame.limit();
+
+        if (end - i < 2 || frame.getShort(i) != (short) 0xffd8) {
+            return -1;
+        }
+
+        i += 2;
+
+        while (end - i >= 4) {
+            if (frame.get(i) != (byte) 0xff) {
+                return -1;
+            }
+
+            int marker = frame.get(i + 1) & 0xff;
+
+            // Markers may be preceded by any number of 0xff fill bytes.
+            if (marker == 0xff) {
+                i++;
+                continue;
+            }
+            if (marker >= 0xc0 && marker <= 0xc2) {
+                return end - i >= 9 ? i : -1;
+            }
+            if (marker == 0xda) {
+                return -1;
+            }
+
+            i += 2 + (frame.getShort(i + 2) & 0xffff);
+        }
+
+        return -1;
+    }
+}
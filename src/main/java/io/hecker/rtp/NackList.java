@@ -0,0 +1,128 @@
+package io.hecker.rtp;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.LongToDoubleFunction;
+
+// The packets a receiver requested to be retransmitted via NACKs, which haven't arrived yet, oldest first.
+//
+// Retransmissions get lost as well, and so a packet is requested again once a round-trip time passed without it
+// arriving. The receiver can't derive the round-trip time from the LSR/DLSR fields like the sender does, since it
+// doesn't send any media and thus never gets reported on. It instead measures the time from requesting a packet
+// until it arrives, smoothed like TCP does (RFC 6298), but only for packets requested once (Karn's algorithm),
+// since it's unknown which request a packet requested repeatedly answers.
+//
+// A packet is only requested again if the retransmission can still arrive before the packet following it is played
+// out, and given up on once that happened. Its own timestamp is unknown, but it's due at the same time or earlier.
+// All times are in milliseconds.
+@NotThreadSafe
+class NackList {
+    // Most gaps are closed by FEC or a single retransmission, and so larger ones are given up on.
+    private static final int CAPACITY = 256;
+    // Assumed until the first retransmission arrives
+    private static final double INITIAL_ROUND_TRIP_TIME = 100;
+    private static final double ROUND_TRIP_TIME_GAIN = 0.125;
+
+    private final ArrayDeque<Request> m_requests = new ArrayDeque<>();
+    private double m_roundTripTime = INITIAL_ROUND_TRIP_TIME;
+    private boolean m_measured = false;
+
+    // Adds a gap of packets requested at the given time, followed by a packet with the given timestamp.
+    void add(int firstSequenceNumber, int count, long nextTimestamp, double now) {
+        for (int i = 0; i < count; i++) {
+            if (m_requests.size() == CAPACITY) {
+                m_requests.poll();
+            }
+
+            m_requests.add(new Request((firstSequenceNumber + i) & 0xffff, nextTimestamp, now));
+        }
+    }
+
+    // Removes the packet, which arrived at the given time. Returns whether it had been requested.
+    boolean onArrived(int sequenceNumber, double now) {
+        Request request = remove(sequenceNumber);
+        if (request == null) {
+            return false;
+        }
+
+        if (request.m_count == 1) {
+            double sample = now - request.m_requestTime;
+
+            if (m_measured) {
+                m_roundTripTime += (sample - m_roundTripTime) * ROUND_TRIP_TIME_GAIN;
+            } else {
+                m_roundTripTime = sample;
+                m_measured = true;
+            }
+        }
+
+        return true;
+    }
+
+    // Removes the packet, which got recovered otherwise, e.g. using FEC.
+    void cancel(int sequenceNumber) {
+        remove(sequenceNumber);
+    }
+
+    // Returns the packets to be requested again at the given time, in ascending order.
+    List<Integer> retry(double now, LongToDoubleFunction playoutTime) {
+        if (m_requests.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<Integer> sequenceNumbers = new ArrayList<>();
+
+        for (Iterator<Request> it = m_requests.iterator(); it.hasNext(); ) {
+            Request request = it.next();
+
+            double deadline = playoutTime.applyAsDouble(request.m_nextTimestamp);
+
+            if (now > deadline) {
+                it.remove();
+            } else if (now - request.m_requestTime >= m_roundTripTime && now + m_roundTripTime <= deadline) {
+                request.m_requestTime = now;
+                request.m_count++;
+                sequenceNumbers.add(request.m_sequenceNumber);
+            }
+        }
+
+        return sequenceNumbers;
+    }
+
+    // The smoothed round-trip time in milliseconds.
+    double getRoundTripTimeMillis() {
+        return m_roundTripTime;
+    }
+
+    @Nullable
+    private Request remove(int sequenceNumber) {
+        for (Iterator<Request> it = m_requests.iterator(); it.hasNext(); ) {
+            Request request = it.next();
+
+            if (request.m_sequenceNumber == sequenceNumber) {
+                it.remove();
+                return request;
+            }
+        }
+
+        return null;
+    }
+
+    private static class Request {
+        private final int m_sequenceNumber;
+        private final long m_nextTimestamp;
+        private double m_requestTime;
+        private int m_count = 1;
+
+        Request(int sequenceNumber, long nextTimestamp, double requestTime) {
+            m_sequenceNumber = sequenceNumber;
+            m_nextTimestamp = nextTimestamp;
+            m_requestTime = requestTime;
+        }
+    }
+}
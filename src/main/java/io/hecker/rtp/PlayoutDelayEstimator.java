@@ -0,0 +1,144 @@
+package io.hecker.rtp;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+// Estimates the playout delay needed to present packets in time, from the network conditions observed by the receiver:
+// * The interarrival jitter as defined in RFC 3550, section 6.4.1 and appendix A.8.
+//   https://tools.ietf.org/html/rfc3550#appendix-A.8
+// * The reorder depth - how late packets arrive which got overtaken by those following them.
+// * The recovery depth - how late lost packets get recovered using FEC.
+//
+// Both depths are measured in time instead of packets, since packets are sent in bursts per frame: An FEC packet
+// protecting the end of one frame is only sent along with the next one, which is a few packets but a whole frame
+// interval later. The depths grow immediately, but decay with a half-life of DEPTH_HALF_LIFE_MS, which lets the
+// delay shrink again on clean links.
+//
+// The playout time of a packet is its timestamp plus the base transit time plus the target delay.
+// The base transit time is the minimum transit time (arrival time minus timestamp) observed within the last two
+// windows of TRANSIT_WINDOW_MS, so that it follows a sender which permanently falls behind its schedule.
+// All timestamps are in milliseconds.
+@NotThreadSafe
+class PlayoutDelayEstimator {
+    static final double MIN_DELAY_MS = 20;
+    static final double MAX_DELAY_MS = 2000;
+
+    // 4 times the jitter cover all but the most extreme outliers of the transit time.
+    private static final double JITTER_MULTIPLIER = 4;
+    private static final double DEPTH_HALF_LIFE_MS = 5000;
+    private static final double TRANSIT_WINDOW_MS = 2000;
+
+    private boolean m_initialized = false;
+    private long m_timestampReference;
+    private long m_highestSequenceNumber;
+
+    private double m_previousTransit;
+    private double m_jitter;
+
+    private double m_reorderDepth;
+    private double m_recoveryDepth;
+    private double m_depthUpdateTime;
+
+    private double m_windowStart;
+    private double m_windowMinTransit;
+    private double m_previousWindowMinTransit;
+
+    void onPacketArrived(int sequenceNumber, long timestamp, double arrivalMillis) {
+        if (!m_initialized) {
+            reset(sequenceNumber, timestamp, arrivalMillis);
+            return;
+        }
+
+        double transit = arrivalMillis - timestampOffset(timestamp);
+        double d = transit - m_previousTransit;
+
+        // A jump this large is a discontinuity, e.g. due to the stream having been paused, and not jitter.
+        if (Math.abs(d) > MAX_DELAY_MS) {
+            reset(sequenceNumber, timestamp, arrivalMillis);
+            return;
+        }
+
+        m_jitter += (Math.abs(d) - m_jitter) / 16.0;
+        m_previousTransit = transit;
+
+        decayDepths(arrivalMillis);
+
+        long depth = m_highestSequenceNumber - extend(sequenceNumber);
+        if (depth > 0) {
+            m_reorderDepth = Math.max(m_reorderDepth, transit - getBaseTransit());
+        } else {
+            m_highestSequenceNumber -= depth;
+        }
+
+        if (arrivalMillis - m_windowStart >= TRANSIT_WINDOW_MS) {
+            m_previousWindowMinTransit = m_windowMinTransit;
+            m_windowMinTransit = transit;
+            m_windowStart = arrivalMillis;
+        } else {
+            m_windowMinTransit = Math.min(m_windowMinTransit, transit);
+        }
+    }
+
+    void onPacketRecovered(long timestamp, double recoveryMillis) {
+        if (m_initialized) {
+            double transit = recoveryMillis - timestampOffset(timestamp);
+            m_recoveryDepth = Math.max(m_recoveryDepth, transit - getBaseTransit());
+        }
+    }
+
+    double getJitterMillis() {
+        return m_jitter;
+    }
+
+    double getTargetDelayMillis() {
+        double delay = Math.max(JITTER_MULTIPLIER * m_jitter, Math.max(m_reorderDepth, m_recoveryDepth));
+        return Math.max(MIN_DELAY_MS, Math.min(delay, MAX_DELAY_MS));
+    }
+
+    // Returns the time at which the packet with the given timestamp should be presented.
+    double getPlayoutTimeMillis(long timestamp) {
+        return timestampOffset(timestamp) + getBaseTransit() + getTargetDelayMillis();
+    }
+
+    // Returns how much longer the packet with the given timestamp took to be presented at the given time,
+    // than the fastest packets took to arrive. This is its end-to-end delay, minus the unknown network latency.
+    double getDelayMillis(long timestamp, double now) {
+        return m_initialized ? now - timestampOffset(timestamp) - getBaseTransit() : 0;
+    }
+
+    private double getBaseTransit() {
+        return Math.min(m_windowMinTransit, m_previousWindowMinTransit);
+    }
+
+    private void reset(int sequenceNumber, long timestamp, double arrivalMillis) {
+        if (!m_initialized) {
+            m_timestampReference = timestamp;
+            m_highestSequenceNumber = sequenceNumber;
+            m_depthUpdateTime = arrivalMillis;
+            m_initialized = true;
+        }
+
+        double transit = arrivalMillis - timestampOffset(timestamp);
+
+        m_previousTransit = transit;
+        m_windowStart = arrivalMillis;
+        m_windowMinTransit = transit;
+        m_previousWindowMinTransit = transit;
+    }
+
+    private void decayDepths(double now) {
+        double factor = Math.pow(0.5, (now - m_depthUpdateTime) / DEPTH_HALF_LIFE_MS);
+        m_reorderDepth *= factor;
+        m_recoveryDepth *= factor;
+        m_depthUpdateTime = now;
+    }
+
+    // Timestamps are 32 bit and may wrap around - the offset is relative to the first one.
+    private long timestampOffset(long timestamp) {
+        return (int) (timestamp - m_timestampReference);
+    }
+
+    // Extends the 16 bit sequence number to the one closest to the highest one seen so far.
+    private long extend(int sequenceNumber) {
+        return m_highestSequenceNumber + (short) (sequenceNumber - (int) m_highestSequenceNumber);
+    }
+}
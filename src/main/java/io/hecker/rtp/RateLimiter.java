@@ -6,13 +6,19 @@ class RateLimiter {
     private long m_previousTimestamp;
     private long m_targetTime;
     private boolean m_gotPrevious = false;
+    private double m_rate = 1;
+
+    // Rates above 1 play back faster than real time.
+    synchronized void setRate(double rate) {
+        m_rate = rate;
+    }
 
     synchronized long getSleepTime(long timestamp) {
         if (!m_gotPrevious) {
             return 0;
         }
 
-        long delta = Math.max(0, timestamp - m_previousTimestamp);
+        long delta = scale(timestamp - m_previousTimestamp);
         long now = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
         long targetTime = m_targetTime + delta;
         return Math.max(0, targetTime - now);
@@ -23,7 +29,7 @@ class RateLimiter {
         long delta = 0;
 
         if (m_gotPrevious) {
-            delta = Math.max(0, timestamp - m_previousTimestamp);
+            delta = scale(timestamp - m_previousTimestamp);
         }
 
         m_previousTimestamp = timestamp;
@@ -34,4 +40,8 @@ class RateLimiter {
     synchronized void reset() {
         m_gotPrevious = false;
     }
+
+    private long scale(long delta) {
+        return Math.round(Math.max(0, delta) / m_rate);
+    }
 }
@@ -0,0 +1,109 @@
+package io.hecker.rtp;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+// A systematic Reed-Solomon erasure code over GF(256), based on a Cauchy matrix (see RFC 5510 for the general idea).
+//
+// A block consists of k data symbols, which are sent as is, and up to m repair symbols of the same length.
+// Repair symbol i is the sum of C[i][j] * data[j] over all j, with C[i][j] = 1 / (x_i + y_j), x_i = 255 - i and
+// y_j = j. Every square submatrix of a Cauchy matrix is invertible, and so any e missing data symbols can be solved
+// for using any e repair symbols. This requires k + m <= 256, for all x_i and y_j to be distinct.
+final class ReedSolomon {
+    static final int MAX_BLOCK_SIZE = 256;
+
+    private ReedSolomon() {
+    }
+
+    static int coefficient(int row, int column) {
+        return GaloisField.inverse((255 - row) ^ column);
+    }
+
+    // Writes the repair symbol of the given row, computed from the first length bytes of the k data symbols.
+    static void encode(byte[][] data, int k, int length, int row, byte[] repair) {
+        checkArgument(k + row < MAX_BLOCK_SIZE, "block too large");
+
+        Arrays.fill(repair, 0, length, (byte) 0);
+
+        for (int column = 0; column < k; column++) {
+            GaloisField.multiplyAddInto(repair, 0, data[column], 0, length, coefficient(row, column));
+        }
+    }
+
+    // Removes the contribution of the known data symbol of the given column from the repair symbol of the given row,
+    // which leaves the repair symbol depending on the missing data symbols only, as expected by decode().
+    static void subtract(byte[] repair, int row, byte[] data, int column, int length) {
+        // Subtraction is addition in GF(2^8).
+        GaloisField.multiplyAddInto(repair, 0, data, 0, length, coefficient(row, column));
+    }
+
+    // Solves for the data symbols of the missing columns, given as many repair symbols of the given rows,
+    // from which all known data symbols have been subtracted already.
+    static void decode(int[] rows, byte[][] repairs, int[] missingColumns, int length, byte[][] data) {
+        int e = missingColumns.length;
+        checkArgument(rows.length == e, "Expected %d repair symbols but got %d", e, rows.length);
+
+        int[][] matrix = new int[e][e];
+        for (int i = 0; i < e; i++) {
+            for (int j = 0; j < e; j++) {
+                matrix[i][j] = coefficient(rows[i], missingColumns[j]);
+            }
+        }
+
+        int[][] inverse = invert(matrix);
+
+        for (int j = 0; j < e; j++) {
+            byte[] symbol = data[j];
+            Arrays.fill(symbol, 0, length, (byte) 0);
+
+            for (int i = 0; i < e; i++) {
+                GaloisField.multiplyAddInto(symbol, 0, repairs[i], 0, length, inverse[j][i]);
+            }
+        }
+    }
+
+    // Gauss-Jordan elimination. Never fails for submatrices of a Cauchy matrix.
+    private static int[][] invert(int[][] matrix) {
+        int n = matrix.length;
+        int[][] inverse = new int[n][n];
+
+        for (int i = 0; i < n; i++) {
+            inverse[i][i] = 1;
+        }
+
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            while (matrix[pivot][col] == 0) {
+                pivot++;
+            }
+
+            int[] tmp = matrix[pivot];
+            matrix[pivot] = matrix[col];
+            matrix[col] = tmp;
+            tmp = inverse[pivot];
+            inverse[pivot] = inverse[col];
+            inverse[col] = tmp;
+
+            int scale = GaloisField.inverse(matrix[col][col]);
+            for (int j = 0; j < n; j++) {
+                matrix[col][j] = GaloisField.multiply(matrix[col][j], scale);
+                inverse[col][j] = GaloisField.multiply(inverse[col][j], scale);
+            }
+
+            for (int row = 0; row < n; row++) {
+                int factor = matrix[row][col];
+                if (row == col || factor == 0) {
+                    continue;
+                }
+
+                for (int j = 0; j < n; j++) {
+                    matrix[row][j] ^= GaloisField.multiply(factor, matrix[col][j]);
+                    inverse[row][j] ^= GaloisField.multiply(factor, inverse[col][j]);
+                }
+            }
+        }
+
+        return inverse;
+    }
+}
@@ -0,0 +1,203 @@
+package io.hecker.rtp;
+
+import com.google.common.util.concurrent.AbstractExecutionThreadService;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Exchanges RTCP reports and NACKs for any number of RtpSenders or RtpReceivers on a single port.
+//
+// Every participant sends a report about every REPORT_INTERVAL_MS, randomized by a factor within [0.5, 1.5]
+// as recommended by RFC 3550, section 6.3.1. The interval is way shorter than the 5 s minimum of RFC 3550,
+// which is fine, since video is large enough for the reports to be a negligible part of the bandwidth
+// (see the "reduced minimum" in section 6.2). Incoming report blocks and NACKs are handed to the participant
+// whose SSRC they refer to.
+public class RtcpChannel extends AbstractExecutionThreadService {
+    static final long REPORT_INTERVAL_MS = 1000;
+
+    // The NTP epoch is the year 1900.
+    private static final long NTP_EPOCH_OFFSET_SECONDS = 2208988800L;
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final DatagramChannel m_channel;
+    private final Selector m_selector;
+    private final Map<Long, RtcpParticipant> m_participants = new ConcurrentHashMap<>();
+
+    // NOTE: Only to be accessed from the service thread
+    private final ByteBuffer m_buffer = ByteBuffer.allocate(RtpPacket.MAX_DATAGRAM_SIZE + 1);
+
+    public RtcpChannel(InetSocketAddress address) throws IOException {
+        m_channel = DatagramChannel.open();
+
+        try {
+            m_channel.bind(address);
+            m_channel.configureBlocking(false);
+            m_selector = Selector.open();
+        } catch (Throwable e) {
+            m_channel.close();
+            throw e;
+        }
+    }
+
+    public int getLocalPort() {
+        return m_channel.socket().getLocalPort();
+    }
+
+    void register(RtcpParticipant participant) {
+        m_participants.put(participant.getSynchronizationSource(), participant);
+    }
+
+    void deregister(RtcpParticipant participant) {
+        m_participants.remove(participant.getSynchronizationSource(), participant);
+    }
+
+    // Returns the current wallclock time as a 64 bit NTP timestamp with 32 fractional bits.
+    static long ntpTimestamp() {
+        long millis = System.currentTimeMillis();
+        long seconds = millis / 1000 + NTP_EPOCH_OFFSET_SECONDS;
+        long fraction = ((millis % 1000) << 32) / 1000;
+        return seconds << 32 | fraction;
+    }
+
+    // Returns the middle 32 bits of an NTP timestamp, which is in units of 1/65536 seconds.
+    // This is the format of the LSR and DLSR fields of report blocks.
+    static long compactNtpTimestamp(long ntpTimestamp) {
+        return (ntpTimestamp >>> 16) & 0xffffffffL;
+    }
+
+    @Override
+    protected void startUp() throws Exception {
+        m_channel.register(m_selector, SelectionKey.OP_READ);
+    }
+
+    @Override
+    protected void run() throws Exception {
+        long nextReportTime = now() + nextReportInterval();
+
+        while (isRunning()) {
+            m_selector.select(Math.max(1, nextReportTime - now()));
+            m_selector.selectedKeys().clear();
+
+            receivePackets();
+
+            if (now() >= nextReportTime) {
+                sendReports();
+                nextReportTime = now() + nextReportInterval();
+            }
+        }
+    }
+
+    @Override
+    protected void triggerShutdown() {
+        m_selector.wakeup();
+    }
+
+    @Override
+    protected void shutDown() throws Exception {
+        try {
+            m_selector.close();
+        } finally {
+            m_channel.close();
+        }
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private static long nextReportInterval() {
+        return (long) (REPORT_INTERVAL_MS * ThreadLocalRandom.current().nextDouble(0.5, 1.5));
+    }
+
+    private void receivePackets() throws IOException {
+        while (true) {
+            m_buffer.clear();
+
+            SocketAddress from = m_channel.receive(m_buffer);
+            if (from == null) {
+                return;
+            }
+
+            // Make sure the datagram didn't get truncated.
+            if (!m_buffer.hasRemaining()) {
+                continue;
+            }
+
+            m_buffer.flip();
+
+            List<RtcpPacket> packets;
+            try {
+                packets = RtcpPacket.parseCompound(m_buffer);
+            } catch (Throwable e) {
+                LOGGER.debug("failed to parse RTCP packet from {}", from, e);
+                continue;
+            }
+
+            for (RtcpPacket packet : packets) {
+                handlePacket(packet, from);
+            }
+        }
+    }
+
+    // Sends the packet right away instead of along with the next report, e.g. for feedback like NACKs.
+    // Can be called from any thread.
+    void send(RtcpPacket packet, SocketAddress target) {
+        try {
+            m_channel.send(packet.serialize(), target);
+        } catch (IOException e) {
+            LOGGER.debug("failed to send RTCP packet to {}", target, e);
+        }
+    }
+
+    private void handlePacket(RtcpPacket packet, SocketAddress from) {
+        if (packet instanceof RtcpNack) {
+            RtcpNack nack = (RtcpNack) packet;
+            RtcpParticipant participant = m_participants.get(nack.getMediaSource());
+            if (participant != null) {
+                participant.onNack(nack, from);
+            }
+            return;
+        }
+
+        if (packet instanceof RtcpSenderReport) {
+            for (RtcpParticipant participant : m_participants.values()) {
+                participant.onSenderReport((RtcpSenderReport) packet, from);
+            }
+        }
+
+        for (RtcpReportBlock block : packet.getReportBlocks()) {
+            RtcpParticipant participant = m_participants.get(block.getSynchronizationSource());
+            if (participant != null) {
+                participant.onReportBlock(block, from);
+            }
+        }
+    }
+
+    private void sendReports() {
+        for (RtcpParticipant participant : m_participants.values()) {
+            SocketAddress target = participant.getRtcpTarget();
+            if (target == null) {
+                continue;
+            }
+
+            RtcpPacket report = participant.createReport();
+            if (report != null) {
+                // Reports are dropped just like any other datagram if the socket's buffer is full.
+                send(report, target);
+            }
+        }
+    }
+}
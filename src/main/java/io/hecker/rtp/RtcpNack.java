@@ -0,0 +1,126 @@
+package io.hecker.rtp;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.concurrent.Immutable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+// A generic NACK as defined in RFC 4585, section 6.2.1, which requests the retransmission of lost packets.
+// https://tools.ietf.org/html/rfc4585#section-6.2.1
+//
+// Each FCI entry holds a packet ID (PID) and a bitmask (BLP) of the 16 packets following it.
+@Immutable
+public class RtcpNack extends RtcpPacket {
+    // Transport layer feedback message
+    static final int PACKET_TYPE = 205;
+    static final int FORMAT = 1;
+
+    private static final int MEDIA_SOURCE_SIZE = 4;
+    private static final int FCI_SIZE = 4;
+
+    private final long m_mediaSource;
+    private final List<Integer> m_sequenceNumbers;
+
+    RtcpNack(ByteBuffer data) {
+        super(data.getInt(data.position() + 4) & 0xffffffffL, Collections.emptyList());
+
+        int offset = data.position() + HEADER_SIZE;
+        if (offset + MEDIA_SOURCE_SIZE > data.limit()) {
+            throw new IllegalArgumentException("packet too small");
+        }
+
+        m_mediaSource = data.getInt(offset) & 0xffffffffL;
+
+        List<Integer> sequenceNumbers = new ArrayList<>();
+
+        for (int i = offset + MEDIA_SOURCE_SIZE; i + FCI_SIZE <= data.limit(); i += FCI_SIZE) {
+            int packetId = data.getShort(i) & 0xffff;
+            int bitmask = data.getShort(i + 2) & 0xffff;
+
+            sequenceNumbers.add(packetId);
+
+            for (int bit = 0; bit < 16; bit++) {
+                if ((bitmask & 1 << bit) != 0) {
+                    sequenceNumbers.add((packetId + bit + 1) & 0xffff);
+                }
+            }
+        }
+
+        m_sequenceNumbers = ImmutableList.copyOf(sequenceNumbers);
+    }
+
+    // The sequence numbers have to be given in ascending order, modulo wrap-arounds.
+    RtcpNack(long synchronizationSource, long mediaSource, Collection<Integer> sequenceNumbers) {
+        super(synchronizationSource, Collections.emptyList());
+        m_mediaSource = mediaSource;
+        m_sequenceNumbers = ImmutableList.copyOf(sequenceNumbers);
+    }
+
+    // The SSRC of the source the lost packets originate from.
+    public long getMediaSource() {
+        return m_mediaSource;
+    }
+
+    public List<Integer> getSequenceNumbers() {
+        return m_sequenceNumbers;
+    }
+
+    @Override
+    int getPacketType() {
+        return PACKET_TYPE;
+    }
+
+    @Override
+    int getCount() {
+        return FORMAT;
+    }
+
+    @Override
+    int getSize() {
+        return HEADER_SIZE + MEDIA_SOURCE_SIZE + countEntries() * FCI_SIZE;
+    }
+
+    @Override
+    void serializeInto(ByteBuffer bb) {
+        serializeHeaderInto(bb);
+        bb.putInt((int) m_mediaSource);
+
+        for (int i = 0; i < m_sequenceNumbers.size(); ) {
+            int packetId = m_sequenceNumbers.get(i++);
+            int bitmask = 0;
+
+            for (; i < m_sequenceNumbers.size(); i++) {
+                int offset = ((m_sequenceNumbers.get(i) - packetId) & 0xffff) - 1;
+                if (offset >= 16) {
+                    break;
+                }
+
+                bitmask |= 1 << offset;
+            }
+
+            bb.putShort((short) packetId);
+            bb.putShort((short) bitmask);
+        }
+    }
+
+    // Returns the number of FCI entries needed to cover all sequence numbers.
+    private int countEntries() {
+        int entries = 0;
+
+        for (int i = 0; i < m_sequenceNumbers.size(); ) {
+            int packetId = m_sequenceNumbers.get(i++);
+
+            while (i < m_sequenceNumbers.size() && ((m_sequenceNumbers.get(i) - packetId) & 0xffff) <= 16) {
+                i++;
+            }
+
+            entries++;
+        }
+
+        return entries;
+    }
+}
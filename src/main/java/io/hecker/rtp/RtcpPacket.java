@@ -0,0 +1,130 @@
+package io.hecker.rtp;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.concurrent.Immutable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+// RTCP packet composition can be found in RFC 3550, section 6.4.
+// https://tools.ietf.org/html/rfc3550#section-6.4
+//
+// Only sender and receiver reports, as well as generic NACKs (RFC 4585), are supported.
+// Any other packets of a compound packet are skipped.
+@Immutable
+public abstract class RtcpPacket {
+    static final int HEADER_SIZE = 8;
+    static final int MAX_REPORT_BLOCKS = 31;
+
+    private final long m_synchronizationSource;
+    private final List<RtcpReportBlock> m_reportBlocks;
+
+    RtcpPacket(long synchronizationSource, List<RtcpReportBlock> reportBlocks) {
+        if (reportBlocks.size() > MAX_REPORT_BLOCKS) {
+            throw new IllegalArgumentException("too many report blocks");
+        }
+
+        m_synchronizationSource = synchronizationSource;
+        m_reportBlocks = ImmutableList.copyOf(reportBlocks);
+    }
+
+    // Parses all sender and receiver reports contained in the given compound packet.
+    static List<RtcpPacket> parseCompound(ByteBuffer data) {
+        data = data
+            .duplicate()
+            .order(ByteOrder.BIG_ENDIAN);
+
+        List<RtcpPacket> packets = new ArrayList<>(1);
+
+        while (data.remaining() >= HEADER_SIZE) {
+            int start = data.position();
+            int version = (data.get(start) >>> 6) & 0b00000011;
+            int count = data.get(start) & 0b00011111;
+            int packetType = data.get(start + 1) & 0xff;
+            int length = ((data.getShort(start + 2) & 0xffff) + 1) * 4;
+
+            if (version != 2 || length > data.remaining()) {
+                throw new IllegalArgumentException("invalid RTCP packet");
+            }
+
+            ByteBuffer packet = data.duplicate();
+            packet.limit(start + length);
+
+            switch (packetType) {
+                case RtcpSenderReport.PACKET_TYPE:
+                    packets.add(new RtcpSenderReport(packet, count));
+                    break;
+                case RtcpReceiverReport.PACKET_TYPE:
+                    packets.add(new RtcpReceiverReport(packet, count));
+                    break;
+                case RtcpNack.PACKET_TYPE:
+                    if (count == RtcpNack.FORMAT) {
+                        packets.add(new RtcpNack(packet));
+                    }
+                    break;
+                default:
+                    break;
+            }
+
+            data.position(start + length);
+        }
+
+        return packets;
+    }
+
+    static List<RtcpReportBlock> parseReportBlocks(ByteBuffer data, int count) {
+        if (data.remaining() < count * RtcpReportBlock.SIZE) {
+            throw new IllegalArgumentException("packet too small");
+        }
+
+        List<RtcpReportBlock> blocks = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            blocks.add(new RtcpReportBlock(data));
+        }
+
+        return blocks;
+    }
+
+    public long getSynchronizationSource() {
+        return m_synchronizationSource;
+    }
+
+    public List<RtcpReportBlock> getReportBlocks() {
+        return m_reportBlocks;
+    }
+
+    public ByteBuffer serialize() {
+        ByteBuffer bb = ByteBuffer.allocate(getSize());
+        serializeInto(bb);
+        bb.flip();
+        return bb;
+    }
+
+    abstract int getPacketType();
+
+    // The 5 bit field following the padding bit in the header.
+    // Sender and receiver reports put their report count in there.
+    int getCount() {
+        return m_reportBlocks.size();
+    }
+
+    abstract int getSize();
+
+    abstract void serializeInto(ByteBuffer bb);
+
+    void serializeHeaderInto(ByteBuffer bb) {
+        bb.put((byte) (2 << 6 | getCount()));
+        bb.put((byte) getPacketType());
+        bb.putShort((short) (getSize() / 4 - 1));
+        bb.putInt((int) m_synchronizationSource);
+    }
+
+    void serializeReportBlocksInto(ByteBuffer bb) {
+        for (RtcpReportBlock block : m_reportBlocks) {
+            block.serializeInto(bb);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package io.hecker.rtp;
+
+import javax.annotation.Nullable;
+import java.net.SocketAddress;
+
+// A sender or receiver exchanging reports with its peer via an RtcpChannel.
+// NOTE: All methods are called from the channel's thread.
+interface RtcpParticipant {
+    // The SSRC incoming report blocks are matched against.
+    long getSynchronizationSource();
+
+    // The address reports are sent to, or null if it isn't known yet.
+    @Nullable
+    SocketAddress getRtcpTarget();
+
+    // Returns the report to be sent to the peer, or null if there's nothing to report yet.
+    @Nullable
+    RtcpPacket createReport();
+
+    // Called for every incoming sender report, regardless of the sender it originates from.
+    void onSenderReport(RtcpSenderReport report, SocketAddress from);
+
+    // Called for incoming report blocks about this participant.
+    void onReportBlock(RtcpReportBlock block, SocketAddress from);
+
+    // Called for incoming NACKs of packets sent by this participant.
+    void onNack(RtcpNack nack, SocketAddress from);
+}
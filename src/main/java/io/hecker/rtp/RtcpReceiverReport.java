@@ -0,0 +1,41 @@
+package io.hecker.rtp;
+
+import javax.annotation.concurrent.Immutable;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+// See RFC 3550, section 6.4.2.
+@Immutable
+public class RtcpReceiverReport extends RtcpPacket {
+    static final int PACKET_TYPE = 201;
+
+    RtcpReceiverReport(ByteBuffer data, int reportCount) {
+        super(data.getInt(data.position() + 4) & 0xffffffffL, parseReportBlocks(skipHeader(data), reportCount));
+    }
+
+    RtcpReceiverReport(long synchronizationSource, List<RtcpReportBlock> reportBlocks) {
+        super(synchronizationSource, reportBlocks);
+    }
+
+    private static ByteBuffer skipHeader(ByteBuffer data) {
+        ByteBuffer bb = data.duplicate();
+        bb.position(bb.position() + HEADER_SIZE);
+        return bb;
+    }
+
+    @Override
+    int getPacketType() {
+        return PACKET_TYPE;
+    }
+
+    @Override
+    int getSize() {
+        return HEADER_SIZE + getReportBlocks().size() * RtcpReportBlock.SIZE;
+    }
+
+    @Override
+    void serializeInto(ByteBuffer bb) {
+        serializeHeaderInto(bb);
+        serializeReportBlocksInto(bb);
+    }
+}
@@ -0,0 +1,97 @@
+package io.hecker.rtp;
+
+import javax.annotation.concurrent.Immutable;
+import java.nio.ByteBuffer;
+
+// A reception report about a single synchronization source, as found in sender and receiver reports.
+// See RFC 3550, section 6.4.1.
+@Immutable
+public class RtcpReportBlock {
+    static final int SIZE = 24;
+
+    private final long m_synchronizationSource;
+    private final int m_fractionLost;
+    private final int m_cumulativePacketsLost;
+    private final long m_extendedHighestSequenceNumber;
+    private final long m_jitter;
+    private final long m_lastSenderReport;
+    private final long m_delaySinceLastSenderReport;
+
+    // Reads a report block at the buffer's position and advances it past the block.
+    RtcpReportBlock(ByteBuffer data) {
+        m_synchronizationSource = data.getInt() & 0xffffffffL;
+        int lost = data.getInt();
+        m_fractionLost = lost >>> 24;
+        // The cumulative number of packets lost is a signed 24 bit integer.
+        m_cumulativePacketsLost = lost << 8 >> 8;
+        m_extendedHighestSequenceNumber = data.getInt() & 0xffffffffL;
+        m_jitter = data.getInt() & 0xffffffffL;
+        m_lastSenderReport = data.getInt() & 0xffffffffL;
+        m_delaySinceLastSenderReport = data.getInt() & 0xffffffffL;
+    }
+
+    RtcpReportBlock(
+        long synchronizationSource,
+        int fractionLost,
+        int cumulativePacketsLost,
+        long extendedHighestSequenceNumber,
+        long jitter,
+        long lastSenderReport,
+        long delaySinceLastSenderReport
+    ) {
+        m_synchronizationSource = synchronizationSource;
+        m_fractionLost = fractionLost;
+        // Clamped to the range of a signed 24 bit integer.
+        m_cumulativePacketsLost = Math.max(-0x800000, Math.min(cumulativePacketsLost, 0x7fffff));
+        m_extendedHighestSequenceNumber = extendedHighestSequenceNumber;
+        m_jitter = jitter;
+        m_lastSenderReport = lastSenderReport;
+        m_delaySinceLastSenderReport = delaySinceLastSenderReport;
+    }
+
+    // The SSRC of the source this block reports on.
+    public long getSynchronizationSource() {
+        return m_synchronizationSource;
+    }
+
+    // The fraction of packets lost since the previous report as a fixed point number with 8 fractional bits.
+    public int getFractionLost() {
+        return m_fractionLost;
+    }
+
+    public double getRelativePacketsLost() {
+        return m_fractionLost / 256.0;
+    }
+
+    public int getCumulativePacketsLost() {
+        return m_cumulativePacketsLost;
+    }
+
+    public long getExtendedHighestSequenceNumber() {
+        return m_extendedHighestSequenceNumber;
+    }
+
+    // The interarrival jitter in timestamp units.
+    public long getJitter() {
+        return m_jitter;
+    }
+
+    // The middle 32 bits of the NTP timestamp of the last sender report received from the source or 0.
+    public long getLastSenderReport() {
+        return m_lastSenderReport;
+    }
+
+    // The delay between receiving the last sender report and sending this block in units of 1/65536 seconds.
+    public long getDelaySinceLastSenderReport() {
+        return m_delaySinceLastSenderReport;
+    }
+
+    void serializeInto(ByteBuffer bb) {
+        bb.putInt((int) m_synchronizationSource);
+        bb.putInt(m_fractionLost << 24 | m_cumulativePacketsLost & 0xffffff);
+        bb.putInt((int) m_extendedHighestSequenceNumber);
+        bb.putInt((int) m_jitter);
+        bb.putInt((int) m_lastSenderReport);
+        bb.putInt((int) m_delaySinceLastSenderReport);
+    }
+}
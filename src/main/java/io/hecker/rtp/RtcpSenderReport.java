@@ -0,0 +1,94 @@
+package io.hecker.rtp;
+
+import javax.annotation.concurrent.Immutable;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+// See RFC 3550, section 6.4.1.
+@Immutable
+public class RtcpSenderReport extends RtcpPacket {
+    static final int PACKET_TYPE = 200;
+
+    private static final int SENDER_INFO_SIZE = 20;
+
+    private final long m_ntpTimestamp;
+    private final long m_rtpTimestamp;
+    private final long m_packetCount;
+    private final long m_octetCount;
+
+    RtcpSenderReport(ByteBuffer data, int reportCount) {
+        this(data, data.position() + HEADER_SIZE, reportCount);
+    }
+
+    private RtcpSenderReport(ByteBuffer data, int offset, int reportCount) {
+        super(data.getInt(offset - 4) & 0xffffffffL, parseReportBlocks(skip(data, offset + SENDER_INFO_SIZE), reportCount));
+
+        m_ntpTimestamp = data.getLong(offset);
+        m_rtpTimestamp = data.getInt(offset + 8) & 0xffffffffL;
+        m_packetCount = data.getInt(offset + 12) & 0xffffffffL;
+        m_octetCount = data.getInt(offset + 16) & 0xffffffffL;
+    }
+
+    RtcpSenderReport(
+        long synchronizationSource,
+        long ntpTimestamp,
+        long rtpTimestamp,
+        long packetCount,
+        long octetCount,
+        List<RtcpReportBlock> reportBlocks
+    ) {
+        super(synchronizationSource, reportBlocks);
+        m_ntpTimestamp = ntpTimestamp;
+        m_rtpTimestamp = rtpTimestamp;
+        m_packetCount = packetCount;
+        m_octetCount = octetCount;
+    }
+
+    private static ByteBuffer skip(ByteBuffer data, int position) {
+        if (position > data.limit()) {
+            throw new IllegalArgumentException("packet too small");
+        }
+
+        ByteBuffer bb = data.duplicate();
+        bb.position(position);
+        return bb;
+    }
+
+    // The 64 bit NTP timestamp of the wallclock time at which the report was sent.
+    public long getNtpTimestamp() {
+        return m_ntpTimestamp;
+    }
+
+    // The RTP timestamp corresponding to the same time as the NTP timestamp.
+    public long getRtpTimestamp() {
+        return m_rtpTimestamp;
+    }
+
+    public long getPacketCount() {
+        return m_packetCount;
+    }
+
+    public long getOctetCount() {
+        return m_octetCount;
+    }
+
+    @Override
+    int getPacketType() {
+        return PACKET_TYPE;
+    }
+
+    @Override
+    int getSize() {
+        return HEADER_SIZE + SENDER_INFO_SIZE + getReportBlocks().size() * RtcpReportBlock.SIZE;
+    }
+
+    @Override
+    void serializeInto(ByteBuffer bb) {
+        serializeHeaderInto(bb);
+        bb.putLong(m_ntpTimestamp);
+        bb.putInt((int) m_rtpTimestamp);
+        bb.putInt((int) m_packetCount);
+        bb.putInt((int) m_octetCount);
+        serializeReportBlocksInto(bb);
+    }
+}
@@ -2,14 +2,20 @@ package io.hecker.rtp;
 
 import com.google.common.collect.ImmutableList;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Collection;
 import java.util.Optional;
+import java.util.function.IntFunction;
 
 // FEC header field composition can be found in RFC 5109, section 7.
 // https://tools.ietf.org/html/rfc5109#section-7
+//
+// A packet protects either a run of consecutive packets ("row") or every stride-th packet ("column"),
+// which lets senders combine both into a two-dimensional parity scheme like SMPTE 2022-1. The mask is
+// 16 bits wide and so the protected packets have to span no more than 16 sequence numbers.
 @Immutable
 class RtpFecPacket extends RtpPacket {
     public static final int FEC_MIN_SIZE = 2;
@@ -17,6 +23,7 @@ class RtpFecPacket extends RtpPacket {
 
     private static final int FEC_STATIC_HEADER_SIZE = 10;
     private static final int FEC_LEVEL_0_HEADER_SIZE = 4; // Assuming the FEC long bit is not set
+    static final int FEC_HEADER_SIZE = FEC_STATIC_HEADER_SIZE + FEC_LEVEL_0_HEADER_SIZE;
 
     private final int m_sequenceNumberBase;
     private final int m_paddingRecovery;
@@ -29,14 +36,18 @@ class RtpFecPacket extends RtpPacket {
     private final ImmutableList<FecProtection> m_protections;
 
     RtpFecPacket(ByteBuffer data) {
-        super(data);
+        this(data, null);
+    }
+
+    RtpFecPacket(ByteBuffer data, @Nullable ByteBuffer pooledBuffer) {
+        super(data, pooledBuffer);
 
         data = data.duplicate();
         data.order(ByteOrder.BIG_ENDIAN);
         data.position(getHeaderSize());
         data = data.slice();
 
-        if (data.remaining() < FEC_STATIC_HEADER_SIZE + FEC_LEVEL_0_HEADER_SIZE) {
+        if (data.remaining() < FEC_HEADER_SIZE) {
             throw new IllegalArgumentException("packet too small");
         }
 
@@ -92,7 +103,7 @@ class RtpFecPacket extends RtpPacket {
         FecProtection protection = m_protections.get(0);
         int protectionLength = protection.getPayload().remaining();
 
-        ByteBuffer bb = ByteBuffer.allocate(getHeaderSize() + FEC_STATIC_HEADER_SIZE + FEC_LEVEL_0_HEADER_SIZE + protectionLength);
+        ByteBuffer bb = ByteBuffer.allocate(getHeaderSize() + FEC_HEADER_SIZE + protectionLength);
         bb.order(ByteOrder.BIG_ENDIAN);
 
         // RTP header
@@ -114,7 +125,46 @@ class RtpFecPacket extends RtpPacket {
         return bb;
     }
 
+    // Recovers the missing packet by linearly searching the given packets for each protected sequence number.
     Optional<RtpRegularPacket> recover(Collection<RtpRegularPacket> packets) {
+        return recover(seq -> packets
+            .stream()
+            .filter(p -> p.getSequenceNumber() == seq)
+            .findFirst()
+            .orElse(null));
+    }
+
+    // Recovers the missing packet by looking up each protected sequence number in O(1).
+    // Unless a packet got recovered, this packet is left untouched, so that it can be retried once
+    // other protected packets arrived late or got recovered by other FEC packets in the meantime.
+    Optional<RtpRegularPacket> recover(JitterBuffer window) {
+        return recover(seq -> window.get(window.extend(seq)));
+    }
+
+    // Returns the number of protected packets which aren't in the given window.
+    int getMissingCount(JitterBuffer window) {
+        return getMissingCount(seq -> window.get(window.extend(seq)));
+    }
+
+    private int getMissingCount(IntFunction<RtpRegularPacket> lookup) {
+        int missingCount = 0;
+
+        for (int mask = m_protections.get(0).getMask(), off = 0, m = 1 << 15; m != 0; off++, m >>= 1) {
+            if ((mask & m) != 0 && lookup.apply((getSequenceNumberBase() + off) & 0xffff) == null) {
+                missingCount++;
+            }
+        }
+
+        return missingCount;
+    }
+
+    private Optional<RtpRegularPacket> recover(IntFunction<RtpRegularPacket> lookup) {
+        // If not exactly one packet is missing we can't recover it using the level 0 recovery anyways.
+        // This is checked upfront, since the payload is recovered in place.
+        if (getMissingCount(lookup) != 1) {
+            return Optional.empty();
+        }
+
         FecProtection protection = m_protections.get(0);
         ByteBuffer payload = protection.getPayload();
         int sequenceNumberBase = getSequenceNumberBase();
@@ -132,12 +182,8 @@ class RtpFecPacket extends RtpPacket {
                 continue;
             }
 
-            int seq = sequenceNumberBase + off;
-            RtpRegularPacket packet = packets
-                .stream()
-                .filter(p -> p.getSequenceNumber() == seq)
-                .findFirst()
-                .orElse(null);
+            int seq = (sequenceNumberBase + off) & 0xffff;
+            RtpRegularPacket packet = lookup.apply(seq);
 
             if (packet != null) {
                 ByteBuffer data = packet.getPayload();
@@ -150,24 +196,16 @@ class RtpFecPacket extends RtpPacket {
                 missingTimestamp ^= packet.getTimestamp();
                 missingPayloadLength ^= data.remaining();
 
-                for (int i = 0, r = data.remaining(); i < r; ++i) {
-                    payload.put(i, (byte) (payload.get(i) ^ data.get(i)));
-                }
-            } else if (missingSequenceNumber == -1) {
-                missingSequenceNumber = seq;
+                Xor.xorInto(payload, data);
             } else {
-                // If more than one packet is missing we can't recover it using the level 0 recovery anyways.
-                return Optional.empty();
+                missingSequenceNumber = seq;
             }
         }
 
-        // If no packet is missing we can just return
-        if (missingSequenceNumber == -1) {
-            return Optional.empty();
-        }
-
         payload.limit(missingPayloadLength);
 
+        // The protection payload is recovered in place and thus the
+        // recovered packet inherits this packet's pooled buffer.
         RtpRegularPacket packet = RtpRegularPacket.builder()
             .withSequenceNumber(missingSequenceNumber)
             .withPadding(missingPadding)
@@ -177,6 +215,7 @@ class RtpFecPacket extends RtpPacket {
             .withPayloadType(RtpPayloadType.valueOf(missingPayloadType))
             .withTimestamp(missingTimestamp)
             .withPayload(payload)
+            .withPooledBuffer(getPooledBuffer())
             .build();
         return Optional.of(packet);
     }
@@ -223,6 +262,7 @@ class RtpFecPacket extends RtpPacket {
         private int m_sequenceNumberBase = 0;
         private long m_timestampRecovery = 0;
         private int m_payloadLengthRecovery = 0;
+        private int m_stride = 1;
         private ImmutableList<FecProtection> m_protections = ImmutableList.of();
 
         Builder() {
@@ -274,7 +314,17 @@ class RtpFecPacket extends RtpPacket {
             return this;
         }
 
+        // Protects every stride-th packet, starting at the "SN base", instead of consecutive ones.
+        Builder withStride(int stride) {
+            m_stride = stride;
+            return this;
+        }
+
         RtpFecPacket build() {
+            if ((m_packets.size() - 1) * m_stride >= 16) {
+                throw new IllegalArgumentException("protected packets exceed the mask");
+            }
+
             int protectionLength = 0;
 
             for (RtpRegularPacket packet : m_packets) {
@@ -293,16 +343,15 @@ class RtpFecPacket extends RtpPacket {
             }
 
             // The "mask" field: Every bit corresponds to a specific packet being protected.
-            // A queue size of 5 corresponds to 0b_1111_1000_0000_0000.
-            int protectionMask = -1 << (16 - m_packets.size());
+            // A queue size of 5 corresponds to 0b_1111_1000_0000_0000 and with a stride of 3 to 0b_1001_0010_0100_1000.
+            int protectionMask = 0;
+            for (int i = 0; i < m_packets.size(); i++) {
+                protectionMask |= 1 << (15 - i * m_stride);
+            }
             ByteBuffer protectionPayload = ByteBuffer.allocate(protectionLength);
 
             for (RtpRegularPacket packet : m_packets) {
-                ByteBuffer data = packet.getPayload();
-
-                for (int i = 0, r = data.remaining(); i < r; ++i) {
-                    protectionPayload.put(i, (byte) (protectionPayload.get(i) ^ data.get(i)));
-                }
+                Xor.xorInto(protectionPayload, packet.getPayload());
             }
 
             m_protections = ImmutableList.of(new FecProtection(protectionMask, protectionPayload));
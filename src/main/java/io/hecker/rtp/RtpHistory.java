@@ -0,0 +1,84 @@
+package io.hecker.rtp;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.nio.ByteBuffer;
+
+// A ring of the packets a sender sent most recently, indexed by their sequence number,
+// from which packets are retransmitted upon NACKs (RFC 4585).
+//
+// Packets are kept as the header rewritten by the sender, plus the body shared with the other senders of the
+// source, and so keeping them costs no copies besides the few header bytes. Retransmissions are paid for from
+// a budget, which grows by RETRANSMISSION_SHARE of every byte of fresh media sent. This way they can't crowd
+// out the fresh media, no matter how many packets a viewer requests.
+//
+// Viewers request packets again if their retransmission got lost, and so packets can be retransmitted repeatedly,
+// but no sooner than a given interval after the last time, which skips duplicate NACKs.
+@ThreadSafe
+class RtpHistory {
+    // About 0.7 s worth of packets at 25 frames per second of 30 packets each.
+    static final int CAPACITY = 512;
+
+    private static final double RETRANSMISSION_SHARE = 0.25;
+    private static final double MAX_BUDGET = 64 * RtpPacket.MAX_DATAGRAM_SIZE;
+
+    private final int[] m_sequenceNumbers = new int[CAPACITY];
+    private final byte[][] m_headers = new byte[CAPACITY][];
+    private final ByteBuffer[] m_bodies = new ByteBuffer[CAPACITY];
+    private final int[] m_bodyPositions = new int[CAPACITY];
+    // The System.nanoTime() of the last retransmission, valid if m_retransmitted is set.
+    private final long[] m_retransmitTimes = new long[CAPACITY];
+    private final boolean[] m_retransmitted = new boolean[CAPACITY];
+    private double m_budget = 0;
+
+    // Stores the packet consisting of the given header and body, which must not be modified afterwards.
+    synchronized void add(int sequenceNumber, ByteBuffer header, ByteBuffer body) {
+        int idx = sequenceNumber & (CAPACITY - 1);
+
+        byte[] headerBytes = m_headers[idx];
+        if (headerBytes == null || headerBytes.length != header.remaining()) {
+            headerBytes = new byte[header.remaining()];
+            m_headers[idx] = headerBytes;
+        }
+
+        header.duplicate().get(headerBytes);
+
+        m_sequenceNumbers[idx] = sequenceNumber;
+        m_bodies[idx] = body;
+        m_bodyPositions[idx] = body.position();
+        m_retransmitted[idx] = false;
+
+        m_budget = Math.min(MAX_BUDGET, m_budget + (headerBytes.length + body.remaining()) * RETRANSMISSION_SHARE);
+    }
+
+    // Returns the header and body of the packet to be retransmitted, or null if it isn't in the history anymore,
+    // it has been retransmitted within the given interval already or retransmitting it would exceed the budget.
+    @Nullable
+    synchronized ByteBuffer[] take(int sequenceNumber, long minIntervalNanos) {
+        int idx = sequenceNumber & (CAPACITY - 1);
+        ByteBuffer body = m_bodies[idx];
+
+        if (body == null || m_sequenceNumbers[idx] != sequenceNumber) {
+            return null;
+        }
+
+        long now = System.nanoTime();
+        if (m_retransmitted[idx] && now - m_retransmitTimes[idx] < minIntervalNanos) {
+            return null;
+        }
+
+        ByteBuffer bodyCopy = body.duplicate();
+        bodyCopy.position(m_bodyPositions[idx]);
+
+        int size = m_headers[idx].length + bodyCopy.remaining();
+        if (size > m_budget) {
+            return null;
+        }
+
+        m_budget -= size;
+        m_retransmitTimes[idx] = now;
+        m_retransmitted[idx] = true;
+
+        return new ByteBuffer[]{ByteBuffer.wrap(m_headers[idx].clone()), bodyCopy};
+    }
+}
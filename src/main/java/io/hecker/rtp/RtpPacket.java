@@ -2,6 +2,7 @@ package io.hecker.rtp;
 
 import com.google.common.primitives.Ints;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -10,7 +11,10 @@ import java.nio.ByteOrder;
 // https://tools.ietf.org/html/rfc3550#section-5.1
 @Immutable
 public abstract class RtpPacket implements Comparable<RtpPacket> {
-    private static final int RTP_STATIC_HEADER_SIZE = 12;
+    // An Ethernet MTU of 1500 bytes minus the IPv4 and UDP headers.
+    public static final int MAX_DATAGRAM_SIZE = 1500 - 20 - 8;
+
+    static final int RTP_STATIC_HEADER_SIZE = 12;
 
     private final int m_version;
     private final int m_padding;
@@ -21,8 +25,9 @@ public abstract class RtpPacket implements Comparable<RtpPacket> {
     private final int m_sequenceNumber;
     private final long m_timestamp;
     private final long m_synchronizationSource;
+    private final @Nullable ByteBuffer m_pooledBuffer;
 
-    RtpPacket(ByteBuffer data) {
+    RtpPacket(ByteBuffer data, @Nullable ByteBuffer pooledBuffer) {
         data = data
             .duplicate()
             .order(ByteOrder.BIG_ENDIAN);
@@ -40,6 +45,7 @@ public abstract class RtpPacket implements Comparable<RtpPacket> {
         m_sequenceNumber = data.getShort(2) & 0xffff;
         m_timestamp = data.getInt(4) & 0xffffffffL;
         m_synchronizationSource = data.getInt(8) & 0xffffffffL;
+        m_pooledBuffer = pooledBuffer;
     }
 
     RtpPacket(Builder builder) {
@@ -52,6 +58,7 @@ public abstract class RtpPacket implements Comparable<RtpPacket> {
         m_sequenceNumber = builder.m_sequenceNumber;
         m_timestamp = builder.m_timestamp;
         m_synchronizationSource = builder.m_synchronizationSource;
+        m_pooledBuffer = builder.m_pooledBuffer;
     }
 
     static RtpPayloadType guessType(ByteBuffer data) {
@@ -92,10 +99,17 @@ public abstract class RtpPacket implements Comparable<RtpPacket> {
         return m_timestamp;
     }
 
-    private long getSynchronizationSource() {
+    long getSynchronizationSource() {
         return m_synchronizationSource;
     }
 
+    // The BufferPool buffer backing this packet's data, if any.
+    // It must be released back into its pool once the packet isn't used anymore.
+    @Nullable
+    ByteBuffer getPooledBuffer() {
+        return m_pooledBuffer;
+    }
+
     @Override
     public int compareTo(RtpPacket o) {
         if (o == null) {
@@ -131,5 +145,6 @@ public abstract class RtpPacket implements Comparable<RtpPacket> {
         int m_sequenceNumber = 0;
         long m_timestamp = 0;
         long m_synchronizationSource = 0;
+        @Nullable ByteBuffer m_pooledBuffer = null;
     }
 }
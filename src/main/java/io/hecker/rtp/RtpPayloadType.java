@@ -5,6 +5,7 @@ import com.google.common.collect.ImmutableMap;
 public enum RtpPayloadType {
     UNKNOWN(-1),
     JPEG(26),
+    RS_FEC(126),
     FEC(127);
 
     private static final ImmutableMap<Integer, RtpPayloadType> INVERSE;
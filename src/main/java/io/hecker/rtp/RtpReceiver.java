@@ -7,28 +7,73 @@ import org.apache.logging.log4j.Logger;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.net.BindException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.nio.ByteBuffer;
-import java.util.PriorityQueue;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 public class RtpReceiver extends AbstractExecutionThreadService {
     private static final Logger LOGGER = LogManager.getLogger();
-    private static final int MIN_QUEUE_SIZE = RtpFecPacket.FEC_MAX_SIZE;
+    // Frames are split up into several packets each, see JpegPacketizer.
+    private static final int MIN_QUEUE_SIZE = 4 * RtpFecPacket.FEC_MAX_SIZE;
     private static final int BUFFER_QUEUE_SIZE = 2 * MIN_QUEUE_SIZE;
     private static final int MAX_QUEUE_SIZE = 3 * MIN_QUEUE_SIZE;
     private static final int MAX_BUFFER_SECONDS = 3;
+    // Has to span MAX_QUEUE_SIZE packets plus the FEC packets and losses in between.
+    private static final int JITTER_BUFFER_CAPACITY = 512;
+    // Enough for the row and column FEC packets of a couple of blocks, see RtpSource.
+    private static final int MAX_PENDING_FEC_PACKETS = 2 * RtpFecPacket.FEC_MAX_SIZE;
+
+    // The queue plus the packets handed out by next() but not yet released
+    // by the consumer must fit into the pool for it to be allocation free.
+    private static final int BUFFER_POOL_CAPACITY = 2 * MAX_QUEUE_SIZE;
+
+    // Latency-bounded playout speeds up by this rate while the delay exceeds the given fraction of its maximum.
+    private static final double CATCH_UP_RATE = 1.1;
+    private static final double CATCH_UP_THRESHOLD = 0.5;
+
+    // Larger gaps are most likely due to an outage, in which case retransmissions would only add to the congestion.
+    private static final int MAX_NACK_GAP = 64;
+
+    private static final AtomicBoolean ADAPTIVE_PLAYOUT = new AtomicBoolean();
+    private static final AtomicBoolean NACK = new AtomicBoolean();
+    private static final AtomicInteger MAX_PLAYOUT_DELAY = new AtomicInteger();
 
     private final DatagramSocket m_socket;
+    private final @Nullable DatagramChannel m_channel;
+    private final @Nullable BufferPool m_bufferPool;
+    private final RtcpChannel m_rtcpChannel;
+    private final RtcpHandler m_rtcpHandler = new RtcpHandler();
+    private final long m_synchronizationSource = ThreadLocalRandom.current().nextInt() & 0xffffffffL;
+    private final boolean m_adaptivePlayout = ADAPTIVE_PLAYOUT.get();
+    private final int m_maxPlayoutDelay = MAX_PLAYOUT_DELAY.get();
+    private final boolean m_nack = NACK.get();
 
     private final AtomicLong m_expectedPacketCount = new AtomicLong();
     private final AtomicLong m_packetsLostCount = new AtomicLong();
     private final AtomicLong m_packetsRecoveredCount = new AtomicLong();
+    private final AtomicLong m_packetsReorderedCount = new AtomicLong();
+    private final AtomicLong m_packetsDiscardedCount = new AtomicLong();
+    private final AtomicLong m_packetsRequestedCount = new AtomicLong();
+    private final RtpReceptionStatistics m_receptionStatistics = new RtpReceptionStatistics();
 
-    private final PriorityQueue<RtpRegularPacket> m_queue = new PriorityQueue<>(MAX_QUEUE_SIZE);
+    private final JitterBuffer m_queue = new JitterBuffer(JITTER_BUFFER_CAPACITY, this::evict);
     private final Monitor m_queueMonitor = new Monitor();
     private final Monitor.Guard m_queueNotFullGuard = new Monitor.Guard(m_queueMonitor) {
         @Override
@@ -42,15 +87,96 @@ public class RtpReceiver extends AbstractExecutionThreadService {
             return m_queue.size() > BUFFER_QUEUE_SIZE;
         }
     };
+    private final Monitor.Guard m_queueNotEmptyGuard = new Monitor.Guard(m_queueMonitor) {
+        @Override
+        public boolean isSatisfied() {
+            return !m_queue.isEmpty();
+        }
+    };
+
+    // NOTE: Only to be accessed while holding m_queueMonitor
+    private final PlayoutDelayEstimator m_playoutDelayEstimator = new PlayoutDelayEstimator();
+    // FEC packets which are missing more than one of their protected packets, oldest first.
+    private final Deque<RtpFecPacket> m_pendingFecPackets = new ArrayDeque<>(MAX_PENDING_FEC_PACKETS);
+    // Reed-Solomon repair packets of blocks missing more packets than repair packets arrived so far, oldest first.
+    private final Deque<RtpRsFecPacket> m_pendingRsFecPackets = new ArrayDeque<>(MAX_PENDING_FEC_PACKETS);
+    private final NackList m_nackList = new NackList();
 
     private final RateLimiter m_rateLimiter = new RateLimiter();
 
+    // NOTE: Only to be accessed by the consumer thread
+    private final JpegDepacketizer m_depacketizer = new JpegDepacketizer();
+
     // NOTE: Only to be accessed by the service thread
     private int previousSequenceNumber = 0;
     private boolean gotPreviousSequenceNumber = false;
 
+    // RTCP reports are exchanged on the port following the one the receiver is bound to.
+    // A BindException is thrown if that one isn't available.
     public RtpReceiver(InetSocketAddress address) throws IOException {
         m_socket = new DatagramSocket(address);
+        m_channel = null;
+        m_bufferPool = null;
+        m_rtcpChannel = openRtcpChannel(address, m_socket);
+    }
+
+    // Creates a receiver which reads datagrams of up to maxDatagramSize bytes via a DatagramChannel
+    // into pooled, reusable buffers. Packets returned by next() must be handed back via release().
+    public RtpReceiver(InetSocketAddress address, int maxDatagramSize) throws IOException {
+        m_channel = DatagramChannel.open();
+
+        try {
+            m_channel.bind(address);
+        } catch (Throwable e) {
+            m_channel.close();
+            throw e;
+        }
+
+        m_socket = m_channel.socket();
+        // One spare byte lets us tell a datagram of the maximum size apart from a truncated one.
+        // Frames get copied out of the packets during reassembly and so we can use direct buffers.
+        m_bufferPool = new BufferPool(maxDatagramSize + 1, BUFFER_POOL_CAPACITY, true);
+        m_rtcpChannel = openRtcpChannel(address, m_socket);
+    }
+
+    private static RtcpChannel openRtcpChannel(InetSocketAddress address, DatagramSocket socket) throws IOException {
+        try {
+            if (socket.getLocalPort() == 65535) {
+                throw new BindException("no port available for RTCP");
+            }
+
+            return new RtcpChannel(new InetSocketAddress(address.getAddress(), socket.getLocalPort() + 1));
+        } catch (Throwable e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    // By default packets are presented once a fixed number of them has been buffered.
+    // Adaptive playout instead sizes the playout delay according to the measured network conditions,
+    // which keeps the latency low on clean links. See PlayoutDelayEstimator.
+    // Only affects receivers created afterwards.
+    public static void setAdaptivePlayout(boolean adaptive) {
+        ADAPTIVE_PLAYOUT.set(adaptive);
+    }
+
+    // By default the playout stalls until the queue has been refilled whenever it runs low, adding latency with
+    // every hiccup. With a maximum delay in milliseconds above 0, playout never stalls and instead discards packets
+    // which couldn't be presented within the maximum delay anymore. Any backlog is drained by playing back slightly
+    // faster than real time, which keeps the latency bounded even during long sessions.
+    // Only affects receivers created afterwards.
+    public static void setMaxPlayoutDelay(int millis) {
+        checkArgument(millis >= 0, "Expected millis to be >= 0 but was %s", millis);
+        MAX_PLAYOUT_DELAY.set(millis);
+    }
+
+    // Requests lost packets to be retransmitted via RTCP NACKs (RFC 4585) as soon as a gap in the sequence numbers
+    // shows up, and again every round-trip time until they arrive or are due, see NackList. Retransmitted packets
+    // arrive late and thus require the playout delay to cover the round-trip time, which adaptive playout does on
+    // its own by measuring how late packets arrive.
+    // Only affects receivers created afterwards.
+    public static void setNack(boolean nack) {
+        NACK.set(nack);
     }
 
     private static double safeFraction(long dividend, long divisor) {
@@ -61,6 +187,10 @@ public class RtpReceiver extends AbstractExecutionThreadService {
         return m_socket.getLocalPort();
     }
 
+    public int getLocalRtcpPort() {
+        return m_rtcpChannel.getLocalPort();
+    }
+
     public long getExpectedPacketCount() {
         return m_expectedPacketCount.get();
     }
@@ -81,25 +211,129 @@ public class RtpReceiver extends AbstractExecutionThreadService {
         return safeFraction(getPacketsRecoveredCount(), getExpectedPacketCount());
     }
 
+    // The number of packets counted as lost, which showed up after all without having been requested.
+    public long getPacketsReorderedCount() {
+        return m_packetsReorderedCount.get();
+    }
+
+    public double getRelativePacketsReordered() {
+        return safeFraction(getPacketsReorderedCount(), getExpectedPacketCount());
+    }
+
     public long getPacketsSkippedCount() {
-        return getPacketsLostCount() - getPacketsRecoveredCount();
+        return getPacketsLostCount() - getPacketsRecoveredCount() - getPacketsReorderedCount();
     }
 
     public double getRelativePacketsSkipped() {
         return safeFraction(getPacketsSkippedCount(), getExpectedPacketCount());
     }
 
+    // The number of packets discarded for exceeding the maximum playout delay.
+    public long getPacketsDiscardedCount() {
+        return m_packetsDiscardedCount.get();
+    }
+
+    public double getRelativePacketsDiscarded() {
+        return safeFraction(getPacketsDiscardedCount(), getExpectedPacketCount());
+    }
+
+    // The number of packets requested to be retransmitted, counting repeated requests for a packet each.
+    public long getPacketsRequestedCount() {
+        return m_packetsRequestedCount.get();
+    }
+
+    public double getRelativePacketsRequested() {
+        return safeFraction(getPacketsRequestedCount(), getExpectedPacketCount());
+    }
+
+    // The round-trip time to the sender in milliseconds, as measured by retransmissions.
+    public double getRoundTripTimeMillis() {
+        m_queueMonitor.enter();
+        try {
+            return m_nackList.getRoundTripTimeMillis();
+        } finally {
+            m_queueMonitor.leave();
+        }
+    }
+
+    // The fraction of packets lost within the last RTCP reporting interval.
+    public double getFractionLost() {
+        return m_receptionStatistics.getFractionLost();
+    }
+
+    public long getFramesDroppedCount() {
+        return m_depacketizer.getFramesDroppedCount();
+    }
+
+    // The RFC 3550 interarrival jitter in milliseconds.
+    public double getJitterMillis() {
+        m_queueMonitor.enter();
+        try {
+            return m_playoutDelayEstimator.getJitterMillis();
+        } finally {
+            m_queueMonitor.leave();
+        }
+    }
+
+    // The playout delay in milliseconds that adaptive playout currently aims for.
+    // It's estimated regardless of whether adaptive playout is enabled.
+    public double getTargetDelayMillis() {
+        m_queueMonitor.enter();
+        try {
+            return m_playoutDelayEstimator.getTargetDelayMillis();
+        } finally {
+            m_queueMonitor.leave();
+        }
+    }
+
+    // Returns the next complete frame, reassembled from the packets returned by next().
+    // Unlike the packets, the frame is owned by the caller and doesn't need to be released.
+    public VideoFrame nextFrame() throws Exception {
+        while (true) {
+            RtpRegularPacket packet = next();
+            VideoFrame frame = null;
+
+            try {
+                if (packet.getPayloadType() == RtpPayloadType.JPEG) {
+                    frame = m_depacketizer.push(packet);
+                }
+            } finally {
+                release(packet);
+            }
+
+            if (frame != null) {
+                return frame;
+            }
+        }
+    }
+
     public RtpRegularPacket next() throws Exception {
         m_queueMonitor.enter();
         try {
-            unsafeFillQueue();
-            unsafeAwaitQueueHeadPresentable();
+            if (m_adaptivePlayout) {
+                unsafeAwaitQueueHeadDue();
+            } else if (m_maxPlayoutDelay > 0) {
+                unsafeAwaitQueueHeadBounded();
+            } else {
+                unsafeFillQueue();
+                unsafeAwaitQueueHeadPresentable();
+            }
+
             return unsafePopQueueHead();
         } finally {
             m_queueMonitor.leave();
         }
     }
 
+    // Returns the packet's buffer back into the pool once the consumer is done with it.
+    // This is a no-op for receivers which don't use pooled buffers.
+    public void release(RtpPacket packet) {
+        ByteBuffer bb = packet.getPooledBuffer();
+        if (bb != null && m_bufferPool != null) {
+            m_bufferPool.release(bb);
+        }
+    }
+
     private void unsafeFillQueue() throws InterruptedException {
         if (m_queue.size() >= MIN_QUEUE_SIZE) {
             return;
@@ -132,6 +366,95 @@ public class RtpReceiver extends AbstractExecutionThreadService {
         } while (queueHeadChanged);
     }
 
+    private void unsafeAwaitQueueHeadDue() throws InterruptedException {
+        while (true) {
+            m_queueMonitor.waitFor(m_queueNotEmptyGuard);
+
+            RtpRegularPacket packet = m_queue.peek();
+            double now = nowMillis();
+            long slack = unsafeGetSlack(packet, now);
+
+            if (slack < 0) {
+                unsafeDiscardQueueHead();
+                continue;
+            }
+
+            double playoutTime = m_playoutDelayEstimator.getPlayoutTimeMillis(packet.getTimestamp());
+            long sleepTime = Math.min((long) Math.ceil(playoutTime - now), slack);
+
+            if (sleepTime <= 0) {
+                return;
+            }
+
+            // Retry if the queue head has changed due to packet reordering or FEC recovery.
+            LOGGER.debug("waiting for queue head for {}ms", sleepTime);
+            m_queueMonitor.waitFor(new QueueHeadChangedGuard(packet), sleepTime, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void unsafeAwaitQueueHeadBounded() throws InterruptedException {
+        while (true) {
+            m_queueMonitor.waitFor(m_queueNotEmptyGuard);
+
+            RtpRegularPacket packet = m_queue.peek();
+            long slack = unsafeGetSlack(packet, nowMillis());
+
+            if (slack < 0) {
+                unsafeDiscardQueueHead();
+                continue;
+            }
+
+            // Drain the backlog, which a hiccup left behind, by playing back slightly faster.
+            boolean catchUp = slack < (1 - CATCH_UP_THRESHOLD) * m_maxPlayoutDelay;
+            m_rateLimiter.setRate(catchUp ? CATCH_UP_RATE : 1);
+
+            long sleepTime = Math.min(m_rateLimiter.getSleepTime(packet.getTimestamp()), slack);
+            if (sleepTime <= 0) {
+                return;
+            }
+
+            // Retry if the queue head has changed due to packet reordering or FEC recovery.
+            LOGGER.debug("waiting for queue head for {}ms", sleepTime);
+            m_queueMonitor.waitFor(new QueueHeadChangedGuard(packet), sleepTime, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Returns the time in milliseconds left until the packet exceeds the maximum playout delay.
+    // It's negative if it already has and Long.MAX_VALUE if there is no maximum delay.
+    private long unsafeGetSlack(RtpRegularPacket packet, double now) {
+        if (m_maxPlayoutDelay == 0) {
+            return Long.MAX_VALUE;
+        }
+
+        double delay = m_playoutDelayEstimator.getDelayMillis(packet.getTimestamp(), now);
+        return (long) Math.floor(m_maxPlayoutDelay - delay);
+    }
+
+    // Returns the time at which the packet with the given timestamp is due, or discarded for exceeding the maximum
+    // playout delay. Without adaptive playout, packets are mostly played out later than that, but retransmissions
+    // arriving afterwards would already stall the playout.
+    private double unsafeGetDeadline(long timestamp) {
+        double deadline = m_playoutDelayEstimator.getPlayoutTimeMillis(timestamp);
+
+        if (m_maxPlayoutDelay > 0) {
+            double now = nowMillis();
+            deadline = Math.min(deadline, now + m_maxPlayoutDelay - m_playoutDelayEstimator.getDelayMillis(timestamp, now));
+        }
+
+        return deadline;
+    }
+
+    private void unsafeDiscardQueueHead() {
+        RtpRegularPacket packet = m_queue.poll();
+        LOGGER.debug("discarding late packet seq={}", packet.getSequenceNumber());
+        m_packetsDiscardedCount.getAndIncrement();
+        release(packet);
+    }
+
+    private static double nowMillis() {
+        return System.nanoTime() / 1e6;
+    }
+
     private RtpRegularPacket unsafePopQueueHead() {
         RtpRegularPacket packet = m_queue.poll();
         LOGGER.debug("removing packet seq={}", packet.getSequenceNumber());
@@ -139,11 +462,23 @@ public class RtpReceiver extends AbstractExecutionThreadService {
         return packet;
     }
 
+    @Override
+    protected void startUp() {
+        m_rtcpChannel.register(m_rtcpHandler);
+        m_rtcpChannel.startAsync().awaitRunning();
+    }
+
     @Override
     protected void triggerShutdown() {
+        // For channel based receivers this closes the channel as well.
         m_socket.close();
     }
 
+    @Override
+    protected void shutDown() {
+        m_rtcpChannel.stopAsync().awaitTerminated();
+    }
+
     @Override
     protected void run() throws Exception {
         while (isRunning()) {
@@ -152,23 +487,54 @@ public class RtpReceiver extends AbstractExecutionThreadService {
                 return;
             }
 
-            updateReceiveStats(packet);
+            double arrivalTime = nowMillis();
+            boolean late = updateReceiveStats(packet);
+            m_receptionStatistics.onPacketReceived(packet);
+
+            // The packet may be released below.
+            int sequenceNumber = packet.getSequenceNumber();
+            long mediaSource = packet.getSynchronizationSource();
+            List<Integer> retries = Collections.emptyList();
 
             m_queueMonitor.enterWhen(m_queueNotFullGuard);
             try {
+                m_playoutDelayEstimator.onPacketArrived(sequenceNumber, packet.getTimestamp(), arrivalTime);
+
                 if (packet instanceof RtpFecPacket) {
                     handleFecPacket((RtpFecPacket) packet);
+                } else if (packet instanceof RtpRsFecPacket) {
+                    handleRsFecPacket((RtpRsFecPacket) packet);
                 } else {
-                    handleRegularPacket((RtpRegularPacket) packet);
+                    boolean requested = late && m_nackList.onArrived(sequenceNumber, arrivalTime);
+
+                    if (handleRegularPacket((RtpRegularPacket) packet) && late) {
+                        // A packet counted as lost showed up after all, either retransmitted or merely reordered.
+                        (requested ? m_packetsRecoveredCount : m_packetsReorderedCount).getAndIncrement();
+                        retryPendingFecPackets();
+                    }
+                }
+
+                if (m_nack) {
+                    retries = m_nackList.retry(arrivalTime, this::unsafeGetDeadline);
                 }
             } finally {
                 m_queueMonitor.leave();
             }
+
+            if (!retries.isEmpty()) {
+                LOGGER.debug("requesting retransmission of {} packets again", retries.size());
+                sendNack(mediaSource, retries);
+            }
         }
     }
 
     @Nullable
     private RtpPacket receivePacket() {
+        return m_bufferPool != null ? receivePooledPacket(m_bufferPool) : receiveUnpooledPacket();
+    }
+
+    @Nullable
+    private RtpPacket receiveUnpooledPacket() {
         ByteBuffer bb = ByteBuffer.allocate(64 * 1024);
         DatagramPacket datagramPacket = new DatagramPacket(bb.array(), bb.limit());
 
@@ -188,53 +554,330 @@ public class RtpReceiver extends AbstractExecutionThreadService {
             ByteBuffer packetData = bb.duplicate();
             packetData.limit(datagramPacket.getLength());
 
-            RtpPacket packet;
+            RtpPacket packet = parsePacket(packetData, null);
+            if (packet != null) {
+                return packet;
+            }
+        }
+    }
+
+    @Nullable
+    private RtpPacket receivePooledPacket(BufferPool pool) {
+        while (true) {
+            ByteBuffer bb = pool.acquire();
 
             try {
-                switch (RtpPacket.guessType(packetData)) {
-                    case UNKNOWN:
-                        continue;
-                    case FEC:
-                        packet = new RtpFecPacket(packetData);
-                        break;
-                    default:
-                        packet = new RtpRegularPacket(packetData);
-                        break;
-                }
-            } catch (Throwable e) {
-                LOGGER.debug("failed to parse packet", e);
+                m_channel.receive(bb);
+            } catch (IOException ignored) {
+                pool.release(bb);
+                return null;
+            }
+
+            // Make sure the datagram didn't get truncated.
+            if (!bb.hasRemaining()) {
+                LOGGER.debug("dropping truncated datagram");
+                pool.release(bb);
                 continue;
             }
 
-            LOGGER.debug("received packet seq={} len={}", packet.getSequenceNumber(), packetData.remaining());
-            return packet;
+            bb.flip();
+
+            RtpPacket packet = parsePacket(bb, bb);
+            if (packet != null) {
+                return packet;
+            }
+
+            pool.release(bb);
         }
     }
 
+    @Nullable
+    private RtpPacket parsePacket(ByteBuffer packetData, @Nullable ByteBuffer pooledBuffer) {
+        RtpPacket packet;
+
+        try {
+            switch (RtpPacket.guessType(packetData)) {
+                case UNKNOWN:
+                    return null;
+                case FEC:
+                    packet = new RtpFecPacket(packetData, pooledBuffer);
+                    break;
+                case RS_FEC:
+                    packet = new RtpRsFecPacket(packetData, pooledBuffer);
+                    break;
+                default:
+                    packet = new RtpRegularPacket(packetData, pooledBuffer);
+                    break;
+            }
+        } catch (Throwable e) {
+            LOGGER.debug("failed to parse packet", e);
+            return null;
+        }
+
+        LOGGER.debug("received packet seq={} len={}", packet.getSequenceNumber(), packetData.remaining());
+        return packet;
+    }
+
     private void handleFecPacket(RtpFecPacket packet) {
-        packet.recover(m_queue).ifPresent(p -> {
-            LOGGER.info("recovered seq={}", p.getSequenceNumber());
-            m_packetsRecoveredCount.getAndIncrement();
-            handleRegularPacket(p);
-        });
+        int missingCount = packet.getMissingCount(m_queue);
+
+        if (missingCount == 0) {
+            release(packet);
+        } else if (missingCount == 1) {
+            recoverPacket(packet);
+            retryPendingFecPackets();
+        } else {
+            // Keep the packet around in case the other FEC packets of its block recover all but one of its packets.
+            if (m_pendingFecPackets.size() == MAX_PENDING_FEC_PACKETS) {
+                release(m_pendingFecPackets.poll());
+            }
+            m_pendingFecPackets.add(packet);
+        }
     }
 
-    private void handleRegularPacket(RtpRegularPacket packet) {
+    private void handleRsFecPacket(RtpRsFecPacket packet) {
+        if (m_pendingRsFecPackets.size() == MAX_PENDING_FEC_PACKETS) {
+            release(m_pendingRsFecPackets.poll());
+        }
+        m_pendingRsFecPackets.add(packet);
+
+        recoverRsFecBlock(packet.getSequenceNumberBase(), packet.getBlockSize());
+    }
+
+    // Recovers the missing packets of the block once enough of its repair packets arrived.
+    // Returns false if they didn't yet, in which case they're kept pending.
+    private boolean recoverRsFecBlock(int sequenceNumberBase, int blockSize) {
+        List<RtpRsFecPacket> repairs = new ArrayList<>(blockSize);
+        for (RtpRsFecPacket pending : m_pendingRsFecPackets) {
+            if (pending.getSequenceNumberBase() == sequenceNumberBase && pending.getBlockSize() == blockSize) {
+                repairs.add(pending);
+            }
+        }
+
+        List<RtpRegularPacket> recovered = RtpRsFecPacket.recover(repairs, m_queue);
+        if (recovered == null) {
+            return false;
+        }
+
+        // The recovered packets don't share the repair packets' buffers.
+        m_pendingRsFecPackets.removeAll(repairs);
+        for (RtpRsFecPacket repair : repairs) {
+            release(repair);
+        }
+
+        double now = nowMillis();
+
+        for (RtpRegularPacket packet : recovered) {
+            long timestamp = packet.getTimestamp();
+            int sequenceNumber = packet.getSequenceNumber();
+
+            m_nackList.cancel(sequenceNumber);
+
+            // Packets recovered after their playout time has passed don't count.
+            if (handleRegularPacket(packet)) {
+                LOGGER.info("recovered seq={}", sequenceNumber);
+                m_packetsRecoveredCount.getAndIncrement();
+                m_playoutDelayEstimator.onPacketRecovered(timestamp, now);
+            }
+        }
+
+        return true;
+    }
+
+    // Each recovered packet may in turn let a pending FEC packet recover another one, e.g. a row FEC packet
+    // recovering a packet of a column with two packets missing. This is repeated until nothing changes anymore.
+    private void retryPendingFecPackets() {
+        boolean recovered;
+
+        do {
+            recovered = false;
+
+            for (Iterator<RtpFecPacket> it = m_pendingFecPackets.iterator(); it.hasNext(); ) {
+                RtpFecPacket packet = it.next();
+                int missingCount = packet.getMissingCount(m_queue);
+
+                if (missingCount > 1) {
+                    continue;
+                }
+
+                it.remove();
+
+                if (missingCount == 1) {
+                    recoverPacket(packet);
+                    recovered = true;
+                } else {
+                    release(packet);
+                }
+            }
+        } while (recovered);
+
+        // A packet arriving late may complete a Reed-Solomon block as well.
+        for (RtpRsFecPacket packet : new ArrayList<>(m_pendingRsFecPackets)) {
+            if (m_pendingRsFecPackets.contains(packet)) {
+                recoverRsFecBlock(packet.getSequenceNumberBase(), packet.getBlockSize());
+            }
+        }
+    }
+
+    private void recoverPacket(RtpFecPacket packet) {
+        RtpRegularPacket recovered = packet.recover(m_queue).orElse(null);
+
+        // The FEC packet's buffer lives on in the recovered packet if there is one.
+        if (recovered == null) {
+            release(packet);
+            return;
+        }
+
+        long timestamp = recovered.getTimestamp();
+        int sequenceNumber = recovered.getSequenceNumber();
+        m_nackList.cancel(sequenceNumber);
+
+        // Packets recovered after their playout time has passed don't count.
+        if (!handleRegularPacket(recovered)) {
+            return;
+        }
+
+        LOGGER.info("recovered seq={}", sequenceNumber);
+        m_packetsRecoveredCount.getAndIncrement();
+        m_playoutDelayEstimator.onPacketRecovered(timestamp, nowMillis());
+    }
+
+    // Returns false if the packet was dropped for being too late or a duplicate.
+    private boolean handleRegularPacket(RtpRegularPacket packet) {
         LOGGER.debug("adding packet seq={}", packet.getSequenceNumber());
-        m_queue.add(packet);
+
+        if (!m_queue.add(packet)) {
+            LOGGER.debug("dropping late or duplicate packet seq={}", packet.getSequenceNumber());
+            release(packet);
+            return false;
+        }
+
+        return true;
     }
 
-    private void updateReceiveStats(RtpPacket packet) {
-        if (gotPreviousSequenceNumber) {
-            int seqDelta = (packet.getSequenceNumber() - previousSequenceNumber) & 0xffff;
-            m_expectedPacketCount.getAndAdd(seqDelta);
-            m_packetsLostCount.getAndAdd(seqDelta - 1);
-        } else {
+    private void evict(RtpRegularPacket packet) {
+        LOGGER.debug("evicting packet seq={}", packet.getSequenceNumber());
+        release(packet);
+    }
+
+    // Returns true if the packet arrived after a later one and has thus been counted as lost already.
+    private boolean updateReceiveStats(RtpPacket packet) {
+        int sequenceNumber = packet.getSequenceNumber();
+
+        if (!gotPreviousSequenceNumber) {
             m_expectedPacketCount.getAndIncrement();
+            previousSequenceNumber = sequenceNumber;
+            gotPreviousSequenceNumber = true;
+            return false;
+        }
+
+        int seqDelta = (short) (sequenceNumber - previousSequenceNumber);
+        if (seqDelta <= 0) {
+            return true;
+        }
+
+        m_expectedPacketCount.getAndAdd(seqDelta);
+        m_packetsLostCount.getAndAdd(seqDelta - 1);
+
+        if (seqDelta > 1) {
+            requestRetransmission(packet.getSynchronizationSource(), previousSequenceNumber + 1, seqDelta - 1, packet.getTimestamp());
+        }
+
+        previousSequenceNumber = sequenceNumber;
+        return false;
+    }
+
+    // Requests the gap of packets preceding the packet with the given timestamp.
+    private void requestRetransmission(long mediaSource, int firstSequenceNumber, int count, long nextTimestamp) {
+        if (!m_nack || m_rtcpHandler.m_target == null || count > MAX_NACK_GAP) {
+            return;
+        }
+
+        List<Integer> sequenceNumbers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            sequenceNumbers.add((firstSequenceNumber + i) & 0xffff);
+        }
+
+        m_queueMonitor.enter();
+        try {
+            m_nackList.add(firstSequenceNumber, count, nextTimestamp, nowMillis());
+        } finally {
+            m_queueMonitor.leave();
+        }
+
+        LOGGER.debug("requesting retransmission of {} packets from seq={}", count, firstSequenceNumber & 0xffff);
+        sendNack(mediaSource, sequenceNumbers);
+    }
+
+    private void sendNack(long mediaSource, List<Integer> sequenceNumbers) {
+        SocketAddress target = m_rtcpHandler.m_target;
+        if (target == null) {
+            return;
+        }
+
+        m_rtcpChannel.send(new RtcpNack(m_synchronizationSource, mediaSource, sequenceNumbers), target);
+        m_packetsRequestedCount.getAndAdd(sequenceNumbers.size());
+    }
+
+    // Sends receiver reports and NACKs to the address sender reports are received from.
+    // NOTE: Only to be accessed from the RTCP channel's thread, except for m_target
+    private class RtcpHandler implements RtcpParticipant {
+        private volatile @Nullable SocketAddress m_target;
+        private long m_lastSenderReport;
+        private long m_lastSenderReportTime;
+
+        @Override
+        public long getSynchronizationSource() {
+            return m_synchronizationSource;
+        }
+
+        @Nullable
+        @Override
+        public SocketAddress getRtcpTarget() {
+            return m_target;
+        }
+
+        @Nullable
+        @Override
+        public RtcpPacket createReport() {
+            long delaySinceLastSenderReport = 0;
+            if (m_lastSenderReport != 0) {
+                delaySinceLastSenderReport = (System.nanoTime() - m_lastSenderReportTime) * 65536 / 1_000_000_000;
+            }
+
+            // Timestamps are in milliseconds and so is the jitter.
+            long jitter = Math.round(getJitterMillis());
+
+            RtcpReportBlock block = m_receptionStatistics.createReportBlock(jitter, m_lastSenderReport, delaySinceLastSenderReport);
+            if (block == null) {
+                return null;
+            }
+
+            return new RtcpReceiverReport(m_synchronizationSource, Collections.singletonList(block));
         }
 
-        previousSequenceNumber = packet.getSequenceNumber();
-        gotPreviousSequenceNumber = true;
+        @Override
+        public void onSenderReport(RtcpSenderReport report, SocketAddress from) {
+            if (report.getSynchronizationSource() != m_receptionStatistics.getSynchronizationSource()) {
+                return;
+            }
+
+            LOGGER.debug("received sender report packets={} octets={}", report.getPacketCount(), report.getOctetCount());
+
+            m_target = from;
+            m_lastSenderReport = RtcpChannel.compactNtpTimestamp(report.getNtpTimestamp());
+            m_lastSenderReportTime = System.nanoTime();
+        }
+
+        @Override
+        public void onReportBlock(RtcpReportBlock block, SocketAddress from) {
+            // Receivers don't send any media to be reported on.
+        }
+
+        @Override
+        public void onNack(RtcpNack nack, SocketAddress from) {
+            // Receivers don't send any media to be retransmitted.
+        }
     }
 
     private class QueueHeadChangedGuard extends Monitor.Guard {
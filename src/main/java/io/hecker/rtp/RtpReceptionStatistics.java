@@ -0,0 +1,113 @@
+package io.hecker.rtp;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+// Keeps track of the sequence numbers received from a source for RTCP reception reports,
+// as described in RFC 3550, appendix A.1 and A.3.
+// https://tools.ietf.org/html/rfc3550#appendix-A.1
+@ThreadSafe
+class RtpReceptionStatistics {
+    // Jumps in the sequence number larger than these are considered a restart of the source.
+    private static final int MAX_DROPOUT = 3000;
+    private static final int MAX_MISORDER = 100;
+    private static final int SEQUENCE_NUMBER_MOD = 1 << 16;
+
+    private long m_synchronizationSource;
+    private boolean m_initialized = false;
+    private int m_maxSequenceNumber;
+    // The sequence number following the last very large jump, which confirms a restart of the source if it's
+    // received next, or -1 if there's none.
+    private int m_badSequenceNumber = -1;
+    private long m_cycles;
+    private long m_baseSequenceNumber;
+    private long m_received;
+    private long m_expectedPrior;
+    private long m_receivedPrior;
+    private double m_fractionLost;
+
+    synchronized void onPacketReceived(RtpPacket packet) {
+        int sequenceNumber = packet.getSequenceNumber();
+
+        if (!m_initialized || packet.getSynchronizationSource() != m_synchronizationSource) {
+            reset(packet.getSynchronizationSource(), sequenceNumber);
+            return;
+        }
+
+        int delta = (sequenceNumber - m_maxSequenceNumber) & 0xffff;
+
+        if (delta < MAX_DROPOUT) {
+            // In order, with a permissible gap
+            if (sequenceNumber < m_maxSequenceNumber) {
+                m_cycles += SEQUENCE_NUMBER_MOD;
+            }
+            m_maxSequenceNumber = sequenceNumber;
+        } else if (delta <= SEQUENCE_NUMBER_MOD - MAX_MISORDER) {
+            // A very large jump, which is either a restart of the source or a stray packet, e.g. a very late
+            // duplicate or retransmission. Only a second packet in sequence confirms a restart.
+            if (sequenceNumber == m_badSequenceNumber) {
+                reset(m_synchronizationSource, sequenceNumber);
+            } else {
+                m_badSequenceNumber = (sequenceNumber + 1) & 0xffff;
+            }
+            return;
+        }
+
+        // Duplicate or reordered packets are counted as received as well.
+        m_received++;
+    }
+
+    // Returns a report block on the source and starts a new reporting interval,
+    // or null if no packet has been received yet.
+    @Nullable
+    synchronized RtcpReportBlock createReportBlock(long jitter, long lastSenderReport, long delaySinceLastSenderReport) {
+        if (!m_initialized) {
+            return null;
+        }
+
+        long extendedMax = m_cycles + m_maxSequenceNumber;
+        long expected = extendedMax - m_baseSequenceNumber + 1;
+        long lost = expected - m_received;
+
+        long expectedInterval = expected - m_expectedPrior;
+        long receivedInterval = m_received - m_receivedPrior;
+        long lostInterval = expectedInterval - receivedInterval;
+        m_expectedPrior = expected;
+        m_receivedPrior = m_received;
+
+        int fraction = expectedInterval == 0 || lostInterval <= 0 ? 0 : (int) ((lostInterval << 8) / expectedInterval);
+        m_fractionLost = fraction / 256.0;
+
+        return new RtcpReportBlock(
+            m_synchronizationSource,
+            fraction,
+            (int) Math.max(Integer.MIN_VALUE, Math.min(lost, Integer.MAX_VALUE)),
+            extendedMax & 0xffffffffL,
+            jitter,
+            lastSenderReport,
+            delaySinceLastSenderReport
+        );
+    }
+
+    // The SSRC of the source the statistics are about.
+    synchronized long getSynchronizationSource() {
+        return m_synchronizationSource;
+    }
+
+    // The fraction of packets lost within the last reporting interval.
+    synchronized double getFractionLost() {
+        return m_fractionLost;
+    }
+
+    private void reset(long synchronizationSource, int sequenceNumber) {
+        m_synchronizationSource = synchronizationSource;
+        m_initialized = true;
+        m_maxSequenceNumber = sequenceNumber;
+        m_badSequenceNumber = -1;
+        m_cycles = 0;
+        m_baseSequenceNumber = sequenceNumber;
+        m_received = 1;
+        m_expectedPrior = 0;
+        m_receivedPrior = 0;
+    }
+}
@@ -1,5 +1,6 @@
 package io.hecker.rtp;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -11,7 +12,11 @@ public class RtpRegularPacket extends RtpPacket {
     private final ByteBuffer m_payload;
 
     RtpRegularPacket(ByteBuffer data) {
-        super(data);
+        this(data, null);
+    }
+
+    RtpRegularPacket(ByteBuffer data, @Nullable ByteBuffer pooledBuffer) {
+        super(data, pooledBuffer);
 
         data = data.duplicate();
         data.position(getHeaderSize());
@@ -100,6 +105,11 @@ public class RtpRegularPacket extends RtpPacket {
             return this;
         }
 
+        Builder withPooledBuffer(@Nullable ByteBuffer value) {
+            m_pooledBuffer = value;
+            return this;
+        }
+
         RtpRegularPacket build() {
             return new RtpRegularPacket(this);
         }
@@ -0,0 +1,257 @@
+package io.hecker.rtp;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// A Reed-Solomon repair packet protecting a block of consecutive media packets, see ReedSolomon.
+// Unlike an RtpFecPacket, any k of the k media and m repair packets of a block suffice to recover all media packets.
+//
+// The header following the RTP header is modeled after the one of RFC 5109, with the "SN base" at the same offset:
+//
+//  0                   1                   2                   3
+//  0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+// +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+// |  block size   | repair index  |            SN base            |
+// +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+//
+// It's followed by the repair symbol. The symbol of a media packet consists of the fields RFC 5109 recovers,
+// followed by the payload, and is padded with zeros to the length of the block's longest symbol:
+//
+// +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+// |0|0|P|X|  CC   |M|     PT      |        payload length         |
+// +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+// |                           timestamp                           |
+// +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+// |                        payload ...                            |
+@Immutable
+class RtpRsFecPacket extends RtpPacket {
+    static final int RS_HEADER_SIZE = 4;
+    static final int SYMBOL_HEADER_SIZE = 8;
+
+    private final int m_blockSize;
+    private final int m_repairIndex;
+    private final int m_sequenceNumberBase;
+    private final ByteBuffer m_symbol;
+
+    RtpRsFecPacket(ByteBuffer data, @Nullable ByteBuffer pooledBuffer) {
+        super(data, pooledBuffer);
+
+        data = data.duplicate();
+        data.order(ByteOrder.BIG_ENDIAN);
+        data.position(getHeaderSize());
+        data = data.slice();
+
+        if (data.remaining() < RS_HEADER_SIZE + SYMBOL_HEADER_SIZE) {
+            throw new IllegalArgumentException("packet too small");
+        }
+
+        m_blockSize = data.get(0) & 0xff;
+        m_repairIndex = data.get(1) & 0xff;
+        m_sequenceNumberBase = data.getShort(2) & 0xffff;
+
+        if (m_blockSize == 0 || m_blockSize + m_repairIndex >= ReedSolomon.MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("invalid block");
+        }
+
+        data.position(RS_HEADER_SIZE);
+        m_symbol = data.slice();
+    }
+
+    private RtpRsFecPacket(Builder builder, int blockSize, int repairIndex, ByteBuffer symbol) {
+        super(builder);
+
+        m_blockSize = blockSize;
+        m_repairIndex = repairIndex;
+        m_sequenceNumberBase = 0;
+        m_symbol = symbol;
+    }
+
+    // Creates the given number of repair packets protecting the given packets.
+    // Their sequence numbers and "SN base" are assigned by the senders.
+    static List<RtpRsFecPacket> encode(List<RtpRegularPacket> packets, int repairCount) {
+        int k = packets.size();
+        int length = 0;
+
+        for (RtpRegularPacket packet : packets) {
+            length = Math.max(length, SYMBOL_HEADER_SIZE + packet.getPayload().remaining());
+        }
+
+        byte[][] data = new byte[k][length];
+        for (int i = 0; i < k; i++) {
+            writeSymbol(packets.get(i), data[i]);
+        }
+
+        Builder builder = new Builder();
+        builder.m_timestamp = packets.get(k - 1).getTimestamp();
+
+        List<RtpRsFecPacket> repairs = new ArrayList<>(repairCount);
+        for (int row = 0; row < repairCount; row++) {
+            byte[] repair = new byte[length];
+            ReedSolomon.encode(data, k, length, row, repair);
+            repairs.add(new RtpRsFecPacket(builder, k, row, ByteBuffer.wrap(repair)));
+        }
+
+        return repairs;
+    }
+
+    // Recovers the missing packets of the block the given repair packets belong to, which have to share the same
+    // block size and "SN base". Returns null if more packets are missing than there are repair packets,
+    // or if the packets in the window don't fit the repair packets, e.g. after the sender restarted.
+    @Nullable
+    static List<RtpRegularPacket> recover(List<RtpRsFecPacket> repairs, JitterBuffer window) {
+        RtpRsFecPacket first = repairs.get(0);
+        int k = first.m_blockSize;
+        RtpRegularPacket[] packets = new RtpRegularPacket[k];
+        int missingCount = 0;
+
+        for (int column = 0; column < k; column++) {
+            int seq = (first.m_sequenceNumberBase + column) & 0xffff;
+            packets[column] = window.get(window.extend(seq));
+
+            if (packets[column] == null) {
+                missingCount++;
+            }
+        }
+
+        if (missingCount == 0) {
+            return Collections.emptyList();
+        }
+        if (missingCount > repairs.size()) {
+            return null;
+        }
+
+        int length = 0;
+        for (RtpRsFecPacket repair : repairs) {
+            length = Math.max(length, repair.m_symbol.remaining());
+        }
+
+        int[] rows = new int[missingCount];
+        byte[][] repairSymbols = new byte[missingCount][length];
+        for (int i = 0; i < missingCount; i++) {
+            RtpRsFecPacket repair = repairs.get(i);
+            rows[i] = repair.m_repairIndex;
+            repair.m_symbol.duplicate().get(repairSymbols[i], 0, repair.m_symbol.remaining());
+        }
+
+        int[] missingColumns = new int[missingCount];
+        byte[] symbol = new byte[length];
+
+        for (int column = 0, missing = 0; column < k; column++) {
+            if (packets[column] == null) {
+                missingColumns[missing++] = column;
+                continue;
+            }
+
+            if (!writeSymbol(packets[column], symbol)) {
+                // Doesn't belong to this block.
+                return null;
+            }
+
+            for (int i = 0; i < missingCount; i++) {
+                ReedSolomon.subtract(repairSymbols[i], rows[i], symbol, column, length);
+            }
+        }
+
+        byte[][] recoveredSymbols = new byte[missingCount][length];
+        ReedSolomon.decode(rows, repairSymbols, missingColumns, length, recoveredSymbols);
+
+        List<RtpRegularPacket> recovered = new ArrayList<>(missingCount);
+        for (int i = 0; i < missingCount; i++) {
+            RtpRegularPacket packet = readSymbol(recoveredSymbols[i], (first.m_sequenceNumberBase + missingColumns[i]) & 0xffff);
+            if (packet != null) {
+                recovered.add(packet);
+            }
+        }
+
+        return recovered;
+    }
+
+    // Returns false if the packet's symbol exceeds the given symbol's length.
+    private static boolean writeSymbol(RtpRegularPacket packet, byte[] symbol) {
+        ByteBuffer payload = packet.getPayload();
+        int payloadLength = payload.remaining();
+
+        if (SYMBOL_HEADER_SIZE + payloadLength > symbol.length) {
+            return false;
+        }
+
+        long timestamp = packet.getTimestamp();
+
+        symbol[0] = (byte) (packet.getPadding() << 5 | packet.getExtension() << 4 | packet.getCsrcCount());
+        symbol[1] = (byte) (packet.getMarker() << 7 | packet.getPayloadType().code());
+        symbol[2] = (byte) (payloadLength >>> 8);
+        symbol[3] = (byte) payloadLength;
+        symbol[4] = (byte) (timestamp >>> 24);
+        symbol[5] = (byte) (timestamp >>> 16);
+        symbol[6] = (byte) (timestamp >>> 8);
+        symbol[7] = (byte) timestamp;
+
+        payload.duplicate().get(symbol, SYMBOL_HEADER_SIZE, payloadLength);
+        Arrays.fill(symbol, SYMBOL_HEADER_SIZE + payloadLength, symbol.length, (byte) 0);
+        return true;
+    }
+
+    // Returns null if the symbol is corrupt, e.g. due to repair packets of different blocks sharing the same "SN base".
+    @Nullable
+    private static RtpRegularPacket readSymbol(byte[] symbol, int sequenceNumber) {
+        ByteBuffer bb = ByteBuffer.wrap(symbol).order(ByteOrder.BIG_ENDIAN);
+        int payloadLength = bb.getShort(2) & 0xffff;
+
+        if (SYMBOL_HEADER_SIZE + payloadLength > symbol.length) {
+            return null;
+        }
+
+        bb.position(SYMBOL_HEADER_SIZE);
+        bb.limit(SYMBOL_HEADER_SIZE + payloadLength);
+
+        return RtpRegularPacket.builder()
+            .withSequenceNumber(sequenceNumber)
+            .withPadding((symbol[0] >>> 5) & 0b00000001)
+            .withExtension((symbol[0] >>> 4) & 0b00000001)
+            .withCsrcCount(symbol[0] & 0b00001111)
+            .withMarker((symbol[1] >>> 7) & 0b00000001)
+            .withPayloadType(RtpPayloadType.valueOf(symbol[1] & 0b01111111))
+            .withTimestamp(bb.getInt(4) & 0xffffffffL)
+            .withPayload(bb.slice())
+            .build();
+    }
+
+    int getBlockSize() {
+        return m_blockSize;
+    }
+
+    int getSequenceNumberBase() {
+        return m_sequenceNumberBase;
+    }
+
+    @Override
+    public ByteBuffer serialize() {
+        ByteBuffer bb = ByteBuffer.allocate(getHeaderSize() + RS_HEADER_SIZE + m_symbol.remaining());
+        bb.order(ByteOrder.BIG_ENDIAN);
+
+        // RTP header
+        serializeHeaderInto(bb);
+
+        // Reed-Solomon header
+        bb.put((byte) m_blockSize);
+        bb.put((byte) m_repairIndex);
+        bb.putShort((short) m_sequenceNumberBase);
+
+        bb.put(m_symbol.duplicate());
+
+        bb.flip();
+        return bb;
+    }
+
+    private static class Builder extends RtpPacket.Builder {
+        Builder() {
+            m_payloadType = RtpPayloadType.RS_FEC;
+        }
+    }
+}
@@ -1,53 +1,108 @@
 package io.hecker.rtp;
 
-import com.google.common.util.concurrent.AbstractExecutionThreadService;
+import com.google.common.util.concurrent.AbstractService;
 import com.google.common.util.concurrent.AtomicDouble;
-import com.google.common.util.concurrent.Monitor;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.Iterator;
+import java.nio.channels.DatagramChannel;
+import java.util.Collections;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
-public class RtpSender extends AbstractExecutionThreadService {
+// Sends the packets produced by an RtpSource to a single viewer.
+//
+// All per-viewer state is contained in here: The target address, SSRC, sequence numbers and FEC group size.
+// The timestamps are passed through as is, since FEC packets carry the XOR of the protected packets' timestamps,
+// which can't be adjusted for an offset. This is fine, because every source starts off at a random timestamp anyways.
+//
+// Each sender numbers the packets it forwards itself, since every viewer receives the FEC packets of its own group
+// size only. Media packets are forwarded to all viewers and the FEC packets of a block of media packets follow
+// right after it. The FEC "SN base" is thus derived from the sequence number of the last media packet.
+//
+// The sender exchanges RTCP reports with its viewer via the given RtcpChannel and exposes the
+// loss, jitter and round-trip time the viewer reports. If an adaptive FEC target is set,
+// the reported loss drives the sender's FEC group size, see FecController.
+//
+// Packets NACKed by the viewer are retransmitted from an RtpHistory with their original sequence numbers.
+// The history is only kept if NACKs are enabled, since most viewers never send any.
+public class RtpSender extends AbstractService {
+    // The RTP header plus the FEC header up to and including the "SN base" field.
+    static final int FEC_REWRITE_SIZE = RtpPacket.RTP_STATIC_HEADER_SIZE + 4;
+
     private static final Logger LOGGER = LogManager.getLogger();
     private static final AtomicDouble SIMULATED_LOSS_RATE = new AtomicDouble();
     private static final AtomicInteger FEC_SIZE = new AtomicInteger();
+    private static final AtomicDouble ADAPTIVE_FEC_TARGET = new AtomicDouble();
+    private static final AtomicBoolean NACK = new AtomicBoolean();
 
     private final SocketAddress m_target;
-    private final Iterator<VideoFrame> m_stream;
-
-    private final DatagramSocket m_socket = new DatagramSocket();
-    private final RateLimiter m_rateLimiter = new RateLimiter();
+    private final SocketAddress m_rtcpTarget;
+    private final RtpSource m_source;
+    private final DatagramChannel m_channel;
+    private final RtcpChannel m_rtcpChannel;
+    private final RtcpHandler m_rtcpHandler = new RtcpHandler();
 
-    private final Deque<RtpRegularPacket> m_fecQueue = new ArrayDeque<>(RtpFecPacket.FEC_MAX_SIZE);
     private final long m_synchronizationSource = ThreadLocalRandom.current().nextInt() & 0xffffffffL;
+
+    // NOTE: Only to be accessed from within forward() and forwardFec()
+    private final ByteBuffer m_header = ByteBuffer.allocate(FEC_REWRITE_SIZE);
+    private final ByteBuffer[] m_datagram = new ByteBuffer[2];
     private int m_sequenceNumber = ThreadLocalRandom.current().nextInt() & 0xffff;
+    // The number of media packets forwarded in a row, uninterrupted by FEC packets and pauses.
+    private int m_mediaRunLength = 0;
+    private int m_lastMediaSequenceNumber;
+    private boolean m_fecSinceMedia = false;
 
-    private final Monitor m_continueMonitor = new Monitor();
-    private boolean m_continue;
-    private final Monitor.Guard m_continueGuard = new Monitor.Guard(m_continueMonitor) {
-        @Override
-        public boolean isSatisfied() {
-            return m_continue;
-        }
-    };
+    // NOTE: Only to be accessed from the RTCP channel's thread
+    private final @Nullable FecController m_fecController;
+    private volatile int m_fecSize;
+
+    // Written from within forward() and read by the RTCP channel's thread
+    private final AtomicLong m_packetCount = new AtomicLong();
+    private final AtomicLong m_octetCount = new AtomicLong();
+    private volatile long m_lastTimestamp;
+    private volatile long m_lastSendTime;
 
-    public RtpSender(SocketAddress target, Iterator<VideoFrame> stream) throws IOException {
+    // The contents of the last report received from the viewer
+    private volatile double m_fractionLost;
+    private volatile long m_cumulativePacketsLost;
+    private volatile long m_jitter;
+    private volatile double m_roundTripTime = -1;
+
+    // Filled within send() and read by the RTCP channel's thread
+    private final @Nullable RtpHistory m_history = NACK.get() ? new RtpHistory() : null;
+    private final AtomicLong m_packetsRetransmittedCount = new AtomicLong();
+    private final AtomicLong m_retransmissionsSkippedCount = new AtomicLong();
+
+    private volatile boolean m_continue;
+
+    public RtpSender(SocketAddress target, SocketAddress rtcpTarget, RtpSource source, RtcpChannel rtcpChannel) throws IOException {
         m_target = target;
-        m_stream = stream;
+        m_rtcpTarget = rtcpTarget;
+        m_source = source;
+        m_rtcpChannel = rtcpChannel;
+        m_fecSize = FEC_SIZE.get();
 
-        m_socket.connect(target);
+        double adaptiveFecTarget = ADAPTIVE_FEC_TARGET.get();
+        m_fecController = adaptiveFecTarget > 0 ? new FecController(adaptiveFecTarget) : null;
+
+        m_channel = DatagramChannel.open();
+
+        try {
+            m_channel.connect(target);
+        } catch (Throwable e) {
+            m_channel.close();
+            throw e;
+        }
     }
 
     public static void setSimulatedLossRate(double rate) {
@@ -55,6 +110,8 @@ public class RtpSender extends AbstractExecutionThreadService {
         SIMULATED_LOSS_RATE.set(rate);
     }
 
+    // Sets the FEC group size of senders created afterwards.
+    // With adaptive FEC enabled, this is merely the size they start off with.
     public static void setFecSize(int size) {
         checkArgument(
             size == 0 || size >= RtpFecPacket.FEC_MIN_SIZE && size <= RtpFecPacket.FEC_MAX_SIZE,
@@ -66,57 +123,125 @@ public class RtpSender extends AbstractExecutionThreadService {
         FEC_SIZE.set(size);
     }
 
+    // Lets senders created afterwards adapt their FEC group size to the loss their viewer reports, aiming for the
+    // given rate of packets remaining lost after FEC recovery. A rate of 0 disables adaptive FEC.
+    public static void setAdaptiveFecTarget(double residualLossRate) {
+        checkArgument(
+            residualLossRate >= 0 && residualLossRate < 1,
+            "Expected residualLossRate to be in [0,1) but was %f",
+            residualLossRate
+        );
+        ADAPTIVE_FEC_TARGET.set(residualLossRate);
+    }
+
+    // Lets senders created afterwards retransmit the packets their viewer NACKs.
+    public static void setNack(boolean nack) {
+        NACK.set(nack);
+    }
+
+    // The current FEC group size or 0 if FEC is disabled.
+    public int getFecSize() {
+        return m_fecSize;
+    }
+
+    // The fraction of packets lost within the viewer's last reporting interval.
+    public double getRelativePacketsLost() {
+        return m_fractionLost;
+    }
+
+    public long getCumulativePacketsLost() {
+        return m_cumulativePacketsLost;
+    }
+
+    public long getJitterMillis() {
+        return m_jitter;
+    }
+
+    // The round-trip time to the viewer in milliseconds or -1 if it isn't known yet.
+    public double getRoundTripTimeMillis() {
+        return m_roundTripTime;
+    }
+
+    public long getPacketsRetransmittedCount() {
+        return m_packetsRetransmittedCount.get();
+    }
+
+    // The number of NACKed packets which weren't retransmitted, since they were either too old, duplicates,
+    // retransmitting them would have exceeded the retransmission budget or NACKs are disabled.
+    public long getRetransmissionsSkippedCount() {
+        return m_retransmissionsSkippedCount.get();
+    }
+
+    public RtpSource getSource() {
+        return m_source;
+    }
+
     public void setContinue(boolean resume) {
-        m_continueMonitor.enter();
         m_continue = resume;
-        m_continueMonitor.leave();
+        m_source.update();
     }
 
-    @Override
-    protected void run() throws Exception {
-        while (isRunning() && m_stream.hasNext()) {
-            sendFrame(m_stream.next());
-        }
+    boolean isPlaying() {
+        return m_continue;
     }
 
     @Override
-    protected void shutDown() {
-        m_socket.close();
+    protected void doStart() {
+        try {
+            m_source.subscribe(this);
+            m_rtcpChannel.register(m_rtcpHandler);
+        } catch (Throwable e) {
+            notifyFailed(e);
+            return;
+        }
+
+        notifyStarted();
     }
 
     @Override
-    protected void triggerShutdown() {
-        setContinue(true);
-    }
+    protected void doStop() {
+        m_source.unsubscribe(this);
+        m_rtcpChannel.deregister(m_rtcpHandler);
 
-    private void sendFrame(VideoFrame frame) throws Exception {
-        m_continueMonitor.enter();
         try {
-            m_continueMonitor.waitForUninterruptibly(m_continueGuard);
-        } finally {
-            m_continueMonitor.leave();
+            m_channel.close();
+        } catch (IOException e) {
+            LOGGER.error("failed to close channel", e);
         }
 
-        if (!isRunning()) {
-            return;
+        notifyStopped();
+    }
+
+    // Sends the media packet, consisting of the header part to be rewritten and the rest of it, to the viewer.
+    // Returns false if the packet couldn't be sent and the sender should be stopped.
+    // NOTE: Only ever called by the source from one thread at a time
+    boolean forward(ByteBuffer header, ByteBuffer body) {
+        if (!m_continue) {
+            m_mediaRunLength = 0;
+            return true;
         }
 
-        Thread.sleep(m_rateLimiter.getSleepTime(frame.getTimestamp()));
-        m_rateLimiter.present(frame.getTimestamp());
+        if (m_fecSinceMedia) {
+            m_mediaRunLength = 0;
+            m_fecSinceMedia = false;
+        }
 
-        RtpRegularPacket packet = encode(frame);
-        send(packet);
-        createFecPacketMaybe(packet);
+        m_mediaRunLength++;
+        m_lastMediaSequenceNumber = nextSequenceNumber();
+        return send(header, body, m_lastMediaSequenceNumber, -1);
     }
 
-    private RtpRegularPacket encode(VideoFrame frame) {
-        return RtpRegularPacket.builder()
-            .withSequenceNumber(nextSequenceNumber())
-            .withSynchronizationSource(m_synchronizationSource)
-            .withTimestamp(frame.getTimestamp())
-            .withPayloadType(frame.getPayloadType())
-            .withPayload(frame.getPayload())
-            .build();
+    // Sends the FEC packet, whose protected packets start baseOffset media packets back, like forward().
+    // A baseOffset of 1 refers to the last media packet.
+    // It's skipped, unless the viewer received all of them in a row, e.g. due to having just changed its group size.
+    // NOTE: Only ever called by the source from one thread at a time
+    boolean forwardFec(ByteBuffer header, ByteBuffer body, int baseOffset) {
+        if (!m_continue || m_mediaRunLength < baseOffset) {
+            return true;
+        }
+
+        m_fecSinceMedia = true;
+        return send(header, body, nextSequenceNumber(), (m_lastMediaSequenceNumber - baseOffset + 1) & 0xffff);
     }
 
     private int nextSequenceNumber() {
@@ -124,41 +249,176 @@ public class RtpSender extends AbstractExecutionThreadService {
         return m_sequenceNumber;
     }
 
-    private void createFecPacketMaybe(RtpRegularPacket packet) throws Exception {
-        int size = FEC_SIZE.get();
-        if (size == 0) {
-            return;
+    // fecSequenceNumberBase is -1 for media packets.
+    private boolean send(ByteBuffer header, ByteBuffer body, int sequenceNumber, int fecSequenceNumberBase) {
+        // Packets lost by the simulation count as sent, just like ones lost on the network would.
+        m_packetCount.getAndIncrement();
+        m_octetCount.getAndAdd(header.remaining() + body.remaining() - RtpPacket.RTP_STATIC_HEADER_SIZE);
+        m_lastTimestamp = header.getInt(header.position() + 4) & 0xffffffffL;
+        m_lastSendTime = System.nanoTime();
+
+        m_header.clear();
+        for (int i = header.position(), end = header.limit(); i < end; i++) {
+            m_header.put(header.get(i));
         }
+        m_header.flip();
 
-        m_fecQueue.add(packet);
-        if (m_fecQueue.size() < size) {
-            return;
+        m_header.putShort(2, (short) sequenceNumber);
+        m_header.putInt(8, (int) m_synchronizationSource);
+
+        if (fecSequenceNumberBase != -1) {
+            m_header.putShort(14, (short) fecSequenceNumberBase);
+        }
+
+        if (m_history != null) {
+            m_history.add(sequenceNumber, m_header, body);
+        }
+
+        if (isLostBySimulation()) {
+            return true;
         }
 
-        RtpRegularPacket firstPacket = m_fecQueue.getFirst();
-        RtpRegularPacket lastPacket = m_fecQueue.getLast();
+        m_datagram[0] = m_header;
+        m_datagram[1] = body;
 
-        RtpFecPacket fecPacket = RtpFecPacket.builder()
-            .withSequenceNumber(nextSequenceNumber())
-            .withSynchronizationSource(m_synchronizationSource)
-            .withTimestamp(lastPacket.getTimestamp())
-            .withSequenceNumberBase(firstPacket.getSequenceNumber())
-            .withPackets(m_fecQueue)
-            .build();
+        int bodyPosition = body.position();
 
-        m_fecQueue.clear();
+        try {
+            LOGGER.debug("sending packet seq={} len={}", sequenceNumber, m_header.remaining() + body.remaining());
+            m_channel.write(m_datagram);
+        } catch (IOException e) {
+            if (isRunning()) {
+                LOGGER.warn("failed to send to {}", m_target, e);
+            }
+            return false;
+        } finally {
+            // The body is shared with the other senders of the source.
+            body.position(bodyPosition);
+        }
 
-        send(fecPacket);
+        return true;
     }
 
-    private void send(RtpPacket packet) throws IOException {
+    private static boolean isLostBySimulation() {
         double simulatedLossRate = SIMULATED_LOSS_RATE.get();
-        if (simulatedLossRate > 0 && ThreadLocalRandom.current().nextDouble(1.0) < simulatedLossRate) {
-            return;
+        return simulatedLossRate > 0 && ThreadLocalRandom.current().nextDouble(1.0) < simulatedLossRate;
+    }
+
+    // NOTE: Only to be accessed from the RTCP channel's thread
+    private class RtcpHandler implements RtcpParticipant {
+        @Override
+        public long getSynchronizationSource() {
+            return m_synchronizationSource;
+        }
+
+        @Override
+        public SocketAddress getRtcpTarget() {
+            return m_rtcpTarget;
         }
 
-        ByteBuffer packetData = packet.serialize();
-        LOGGER.debug("sending packet seq={} len={}", packet.getSequenceNumber(), packetData.remaining());
-        m_socket.send(new DatagramPacket(packetData.array(), packetData.arrayOffset(), packetData.limit(), m_target));
+        @Nullable
+        @Override
+        public RtcpPacket createReport() {
+            long packetCount = m_packetCount.get();
+            if (packetCount == 0) {
+                return null;
+            }
+
+            // The RTP timestamp corresponding to the NTP timestamp is extrapolated from the last packet sent.
+            // Timestamps are in milliseconds.
+            long elapsed = (System.nanoTime() - m_lastSendTime) / 1_000_000;
+            long rtpTimestamp = (m_lastTimestamp + elapsed) & 0xffffffffL;
+
+            return new RtcpSenderReport(
+                m_synchronizationSource,
+                RtcpChannel.ntpTimestamp(),
+                rtpTimestamp,
+                packetCount,
+                m_octetCount.get(),
+                Collections.emptyList()
+            );
+        }
+
+        @Override
+        public void onSenderReport(RtcpSenderReport report, SocketAddress from) {
+            // Viewers don't send any media.
+        }
+
+        @Override
+        public void onReportBlock(RtcpReportBlock block, SocketAddress from) {
+            // See RFC 3550, section 6.4.1, for the computation of the round-trip time.
+            if (block.getLastSenderReport() != 0) {
+                long now = RtcpChannel.compactNtpTimestamp(RtcpChannel.ntpTimestamp());
+                // Both ends round to 1/65536 s, which may yield slightly negative times on fast links.
+                int rtt = (int) (now - block.getLastSenderReport() - block.getDelaySinceLastSenderReport());
+                m_roundTripTime = Math.max(0, rtt) * 1000.0 / 65536.0;
+            }
+
+            m_fractionLost = block.getRelativePacketsLost();
+            m_cumulativePacketsLost = block.getCumulativePacketsLost();
+            m_jitter = block.getJitter();
+
+            if (m_fecController != null) {
+                int fecSize = m_fecController.onReport(m_fractionLost);
+
+                if (fecSize != m_fecSize) {
+                    LOGGER.info(
+                        "changing FEC size of {} from {} to {} at a loss rate of {}%",
+                        m_target,
+                        m_fecSize,
+                        fecSize,
+                        String.format("%.2f", m_fecController.getLossRate() * 100.0)
+                    );
+                    m_fecSize = fecSize;
+                }
+            }
+
+            LOGGER.info(
+                "report from {} lost={}% cumulative={} jitter={}ms rtt={}ms retransmitted={} skipped={}",
+                m_target,
+                String.format("%.2f", m_fractionLost * 100.0),
+                m_cumulativePacketsLost,
+                m_jitter,
+                String.format("%.1f", m_roundTripTime),
+                m_packetsRetransmittedCount.get(),
+                m_retransmissionsSkippedCount.get()
+            );
+        }
+
+        @Override
+        public void onNack(RtcpNack nack, SocketAddress from) {
+            if (m_history == null) {
+                m_retransmissionsSkippedCount.getAndAdd(nack.getSequenceNumbers().size());
+                return;
+            }
+
+            // Viewers repeat their NACKs after a round-trip time, and so any sooner ones are duplicates.
+            long minInterval = m_roundTripTime > 0 ? (long) (m_roundTripTime / 2 * 1_000_000) : 0;
+
+            for (int sequenceNumber : nack.getSequenceNumbers()) {
+                ByteBuffer[] datagram = m_history.take(sequenceNumber, minInterval);
+                if (datagram == null) {
+                    m_retransmissionsSkippedCount.getAndIncrement();
+                    continue;
+                }
+
+                m_packetsRetransmittedCount.getAndIncrement();
+                m_packetCount.getAndIncrement();
+                m_octetCount.getAndAdd(datagram[0].remaining() + datagram[1].remaining() - RtpPacket.RTP_STATIC_HEADER_SIZE);
+
+                if (isLostBySimulation()) {
+                    continue;
+                }
+
+                try {
+                    LOGGER.debug("retransmitting packet seq={}", sequenceNumber);
+                    m_channel.write(datagram);
+                } catch (IOException e) {
+                    // The sender is stopped by the source upon the next failing forward().
+                    LOGGER.debug("failed to retransmit to {}", m_target, e);
+                    return;
+                }
+            }
+        }
     }
 }
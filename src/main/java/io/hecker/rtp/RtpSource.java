@@ -0,0 +1,439 @@
+package io.hecker.rtp;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.AbstractService;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+// Produces the RTP packets of a single video stream and fans them out to any number of RtpSenders.
+// Frames are paced, packetized, FEC protected and serialized exactly once, no matter how many senders
+// are subscribed. The senders merely rewrite the SSRC and sequence number in the packet headers.
+// FEC packets are created once for each group size in use by any of the senders.
+//
+// With more than one FEC row, media packets are FEC protected in blocks of rows of the group size each.
+// Every row is protected by an FEC packet just like with a single row, and additionally every column by
+// another one, which recovers bursts of up to a row's length at the cost of delaying the FEC packets until
+// the end of the block. A column FEC packet's mask has to span all rows and so larger group sizes get fewer
+// rows. Receivers recover packets by alternating between rows and columns, see RtpReceiver.
+//
+// With a Reed-Solomon repair count above 0, each group is instead protected by that many RtpRsFecPackets,
+// which recover as many lost packets of the group, no matter which ones.
+//
+// The source doesn't own a thread. Instead it schedules a tick on the given executor for the time its
+// next frame is due, which lets a few threads pace any number of sources. Sources without any playing
+// senders don't schedule any ticks and cost nothing but their memory. Frames are read ahead on a separate
+// I/O executor (see FramePrefetcher), so that a stalling stream never blocks the ticks of other sources.
+//
+// Frames are paced and stamped by their presentation timestamp, which is derived from the clip's timestamps.
+// It's scaled for trick play and continues where it left off after seeking, so that receivers see a seek
+// as a cut within a single continuous stream.
+public class RtpSource extends AbstractService {
+    private static final Logger LOGGER = LogManager.getLogger();
+    // Leaves room for the FEC headers, so that FEC packets fit into a single datagram as well.
+    private static final int MAX_PAYLOAD_SIZE = RtpPacket.MAX_DATAGRAM_SIZE - RtpPacket.RTP_STATIC_HEADER_SIZE - RtpFecPacket.FEC_HEADER_SIZE;
+    private static final int MAX_FEC_ROWS = 8;
+    private static final AtomicInteger FEC_ROWS = new AtomicInteger(1);
+    private static final AtomicInteger FEC_REPAIR_COUNT = new AtomicInteger();
+
+    // How long to wait for the prefetcher to catch up once it ran dry.
+    private static final long UNDERRUN_DELAY = 5;
+
+    private final VideoClip m_clip;
+    private final ScheduledExecutorService m_executor;
+    private final Executor m_ioExecutor;
+
+    private final RateLimiter m_rateLimiter = new RateLimiter();
+    private final JpegPacketizer m_packetizer = new JpegPacketizer(MAX_PAYLOAD_SIZE);
+    private final int m_fecRows = FEC_ROWS.get();
+    private final int m_fecRepairCount = FEC_REPAIR_COUNT.get();
+
+    // Guards everything below against concurrent ticks, (un)subscriptions and stopping.
+    private final Object m_lock = new Object();
+    private final List<RtpSender> m_senders = new ArrayList<>();
+    // The packets of the block to be protected next, indexed by the group size.
+    private final List<List<RtpRegularPacket>> m_fecBlocks = new ArrayList<>(RtpFecPacket.FEC_MAX_SIZE + 1);
+    private int m_sequenceNumber = ThreadLocalRandom.current().nextInt() & 0xffff;
+    // RFC 3550 recommends a random initial timestamp.
+    private final long m_timestampOffset = ThreadLocalRandom.current().nextInt() & 0xffffffffL;
+    private @Nullable ScheduledFuture<?> m_tick;
+    private FramePrefetcher m_stream;
+    private @Nullable VideoFrame m_pendingFrame;
+    private long m_pendingPresentationTimestamp;
+
+    // The presentation timestamp of a frame is m_presentationBase + (timestamp - m_mediaBase) / m_scale.
+    private double m_scale = 1;
+    private long m_mediaBase;
+    private long m_presentationBase;
+    // Set by play(), to rebase the presentation timestamps on the next frame.
+    private boolean m_rebase;
+    // Describe the last frame sent, if m_presented is set.
+    private boolean m_presented;
+    private long m_lastMediaTimestamp;
+    private long m_lastPresentationTimestamp;
+    private long m_lastPresentationInterval;
+    private long m_lastPresentationTime;
+
+    public RtpSource(VideoClip clip, ScheduledExecutorService executor, Executor ioExecutor) {
+        m_clip = clip;
+        m_executor = executor;
+        m_ioExecutor = ioExecutor;
+        m_stream = new FramePrefetcher(clip.frames(0, 1), ioExecutor);
+
+        for (int size = 0; size <= RtpFecPacket.FEC_MAX_SIZE; size++) {
+            m_fecBlocks.add(size < RtpFecPacket.FEC_MIN_SIZE ? null : new ArrayList<>(size * getFecRows(size)));
+        }
+    }
+
+    // Sets the number of FEC rows per block of sources created afterwards, with 1 disabling column FEC.
+    public static void setFecRows(int rows) {
+        checkArgument(rows >= 1 && rows <= MAX_FEC_ROWS, "Expected rows to be in [1,%d] but was %d", MAX_FEC_ROWS, rows);
+        FEC_ROWS.set(rows);
+    }
+
+    // Sets the number of Reed-Solomon repair packets per group of sources created afterwards.
+    // 0 selects XOR based FEC, which is cheaper to compute, but recovers only a single packet per group.
+    public static void setFecRepairCount(int count) {
+        checkArgument(
+            count >= 0 && count <= RtpFecPacket.FEC_MAX_SIZE,
+            "Expected count to be in [0,%d] but was %d",
+            RtpFecPacket.FEC_MAX_SIZE,
+            count
+        );
+        FEC_REPAIR_COUNT.set(count);
+    }
+
+    // The protected packets of a column FEC packet span (rows - 1) * size + 1 sequence numbers, which must fit into its mask.
+    private int getFecRows(int size) {
+        return m_fecRepairCount > 0 ? 1 : Math.min(m_fecRows, 15 / size + 1);
+    }
+
+    public long getDuration() {
+        return m_clip.getDuration();
+    }
+
+    // Restarts streaming at the given timestamp of the clip, or where streaming currently is if null, at the given
+    // scale. Returns the timestamp streaming restarts at. Seeking a source seeks all of its senders.
+    public long play(@Nullable Long timestamp, double scale) {
+        checkArgument(scale != 0 && !Double.isNaN(scale) && !Double.isInfinite(scale), "invalid scale");
+
+        synchronized (m_lock) {
+            if (!isRunning()) {
+                throw new IllegalStateException("source is not running");
+            }
+
+            long start;
+            if (timestamp != null) {
+                start = timestamp;
+            } else if (m_pendingFrame != null) {
+                start = m_pendingFrame.getTimestamp();
+            } else if (m_presented) {
+                start = m_lastMediaTimestamp + (scale > 0 ? 1 : -1);
+            } else {
+                start = 0;
+            }
+
+            m_stream.close();
+            m_stream = new FramePrefetcher(m_clip.frames(start, scale), m_ioExecutor);
+            m_pendingFrame = null;
+            m_scale = scale;
+            m_rebase = true;
+
+            if (m_tick == null && unsafeIsAnySenderPlaying()) {
+                schedule(0);
+            }
+
+            return start;
+        }
+    }
+
+    public int getSenderCount() {
+        synchronized (m_lock) {
+            return m_senders.size();
+        }
+    }
+
+    void subscribe(RtpSender sender) {
+        synchronized (m_lock) {
+            if (!isRunning()) {
+                throw new IllegalStateException("source is not running");
+            }
+
+            m_senders.add(sender);
+        }
+    }
+
+    void unsubscribe(RtpSender sender) {
+        synchronized (m_lock) {
+            m_senders.remove(sender);
+        }
+    }
+
+    // Called by senders whenever they are paused or resumed.
+    void update() {
+        synchronized (m_lock) {
+            if (m_tick == null && isRunning() && unsafeIsAnySenderPlaying()) {
+                schedule(0);
+            }
+        }
+    }
+
+    @Override
+    protected void doStart() {
+        notifyStarted();
+    }
+
+    @Override
+    protected void doStop() {
+        List<RtpSender> senders;
+
+        synchronized (m_lock) {
+            if (m_tick != null) {
+                m_tick.cancel(false);
+                m_tick = null;
+            }
+
+            senders = ImmutableList.copyOf(m_senders);
+            m_senders.clear();
+            m_stream.close();
+        }
+
+        // Senders can't exist without their source. Stopping them involves
+        // calling back into unsubscribe() and thus has to happen unlocked.
+        for (RtpSender sender : senders) {
+            sender.stopAsync();
+        }
+
+        notifyStopped();
+    }
+
+    private void schedule(long delay) {
+        m_tick = m_executor.schedule(this::tick, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void tick() {
+        List<RtpSender> failedSenders = new ArrayList<>(0);
+        long delay = 0;
+
+        synchronized (m_lock) {
+            m_tick = null;
+
+            if (state() != State.RUNNING || !unsafeIsAnySenderPlaying()) {
+                return;
+            }
+
+            try {
+                delay = unsafeSendDueFrames(failedSenders);
+            } catch (Throwable e) {
+                // Failing skips doStop(), and so the senders have to be stopped here, just like there.
+                failedSenders.addAll(m_senders);
+                m_senders.clear();
+                m_stream.close();
+                notifyFailed(e);
+            }
+
+            if (delay >= 0 && state() == State.RUNNING) {
+                schedule(delay);
+            }
+        }
+
+        // Stopping calls back into this source and has to happen unlocked.
+        for (RtpSender sender : failedSenders) {
+            sender.stopAsync();
+        }
+
+        if (delay < 0) {
+            LOGGER.info("end of stream reached");
+            stopAsync();
+        }
+    }
+
+    private boolean unsafeIsAnySenderPlaying() {
+        for (RtpSender sender : m_senders) {
+            if (sender.isPlaying()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // Sends all frames which are due and returns the time in milliseconds
+    // until the next one is, or -1 if the end of the stream has been reached.
+    private long unsafeSendDueFrames(List<RtpSender> failedSenders) {
+        while (true) {
+            if (m_pendingFrame == null) {
+                m_pendingFrame = m_stream.poll();
+
+                if (m_pendingFrame == null) {
+                    // Catching up on the frames delayed by an underrun is up to the rate limiter.
+                    return m_stream.isExhausted() ? -1 : UNDERRUN_DELAY;
+                }
+
+                m_pendingPresentationTimestamp = unsafeGetPresentationTimestamp(m_pendingFrame);
+            }
+
+            long sleepTime = m_rateLimiter.getSleepTime(m_pendingPresentationTimestamp);
+            if (sleepTime > 0) {
+                return sleepTime;
+            }
+
+            m_rateLimiter.present(m_pendingPresentationTimestamp);
+            unsafeSendFrame(m_pendingFrame, m_pendingPresentationTimestamp, failedSenders);
+
+            if (m_presented) {
+                m_lastPresentationInterval = m_pendingPresentationTimestamp - m_lastPresentationTimestamp;
+            }
+            m_presented = true;
+            m_lastMediaTimestamp = m_pendingFrame.getTimestamp();
+            m_lastPresentationTimestamp = m_pendingPresentationTimestamp;
+            m_lastPresentationTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+            m_pendingFrame = null;
+        }
+    }
+
+    private long unsafeGetPresentationTimestamp(VideoFrame frame) {
+        if (m_rebase) {
+            m_rebase = false;
+            m_mediaBase = frame.getTimestamp();
+            m_presentationBase = 0;
+
+            if (m_presented) {
+                // Continue after the last frame, spaced by the frame interval or the time passed since, e.g. when
+                // seeking while paused - whichever is longer. Either way timestamps have to increase.
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()) - m_lastPresentationTime;
+                m_presentationBase = m_lastPresentationTimestamp + Math.max(1, Math.max(m_lastPresentationInterval, elapsed));
+            }
+        }
+
+        return m_presentationBase + Math.round((frame.getTimestamp() - m_mediaBase) / m_scale);
+    }
+
+    private void unsafeSendFrame(VideoFrame frame, long presentationTimestamp, List<RtpSender> failedSenders) {
+        List<ByteBuffer> payloads = m_packetizer.packetize(frame.getPayload());
+
+        for (int i = 0, last = payloads.size() - 1; i <= last; i++) {
+            RtpRegularPacket packet = RtpRegularPacket.builder()
+                .withSequenceNumber(nextSequenceNumber())
+                .withTimestamp((presentationTimestamp + m_timestampOffset) & 0xffffffffL)
+                .withPayloadType(frame.getPayloadType())
+                .withMarker(i == last ? 1 : 0)
+                .withPayload(payloads.get(i))
+                .build();
+
+            unsafeFanOut(packet, failedSenders);
+            unsafeCreateFecPacketsMaybe(packet, failedSenders);
+        }
+    }
+
+    private int nextSequenceNumber() {
+        m_sequenceNumber = (m_sequenceNumber + 1) & 0xffff;
+        return m_sequenceNumber;
+    }
+
+    private void unsafeCreateFecPacketsMaybe(RtpRegularPacket packet, List<RtpSender> failedSenders) {
+        // A bit set of the group sizes in use
+        int sizes = 0;
+        for (RtpSender sender : m_senders) {
+            sizes |= 1 << sender.getFecSize();
+        }
+
+        for (int size = RtpFecPacket.FEC_MIN_SIZE; size <= RtpFecPacket.FEC_MAX_SIZE; size++) {
+            List<RtpRegularPacket> block = m_fecBlocks.get(size);
+
+            if ((sizes & 1 << size) == 0) {
+                block.clear();
+                continue;
+            }
+
+            int rows = getFecRows(size);
+
+            block.add(packet);
+            if (block.size() < size * rows) {
+                continue;
+            }
+
+            if (m_fecRepairCount > 0) {
+                for (RtpRsFecPacket fecPacket : RtpRsFecPacket.encode(block, m_fecRepairCount)) {
+                    unsafeFanOutFec(fecPacket, size, size, failedSenders);
+                }
+
+                block.clear();
+                continue;
+            }
+
+            for (int row = 0; row < rows; row++) {
+                RtpFecPacket fecPacket = createFecPacket(block.subList(row * size, (row + 1) * size), 1);
+                unsafeFanOutFec(fecPacket, size, block.size() - row * size, failedSenders);
+            }
+
+            if (rows > 1) {
+                List<RtpRegularPacket> column = new ArrayList<>(rows);
+
+                for (int col = 0; col < size; col++) {
+                    column.clear();
+                    for (int row = 0; row < rows; row++) {
+                        column.add(block.get(row * size + col));
+                    }
+
+                    RtpFecPacket fecPacket = createFecPacket(column, size);
+                    unsafeFanOutFec(fecPacket, size, block.size() - col, failedSenders);
+                }
+            }
+
+            block.clear();
+        }
+    }
+
+    private static RtpFecPacket createFecPacket(List<RtpRegularPacket> packets, int stride) {
+        // The sequence number and "SN base" are assigned by the senders.
+        return RtpFecPacket.builder()
+            .withTimestamp(packets.get(packets.size() - 1).getTimestamp())
+            .withPackets(packets)
+            .withStride(stride)
+            .build();
+    }
+
+    private void unsafeFanOut(RtpRegularPacket packet, List<RtpSender> failedSenders) {
+        ByteBuffer data = packet.serialize();
+        ByteBuffer header = splitHeader(data, RtpPacket.RTP_STATIC_HEADER_SIZE);
+
+        for (RtpSender sender : m_senders) {
+            if (!sender.forward(header, data)) {
+                failedSenders.add(sender);
+            }
+        }
+    }
+
+    // The packet's "SN base" lies baseOffset media packets back, see RtpSender.forwardFec().
+    private void unsafeFanOutFec(RtpPacket packet, int size, int baseOffset, List<RtpSender> failedSenders) {
+        ByteBuffer data = packet.serialize();
+        ByteBuffer header = splitHeader(data, RtpSender.FEC_REWRITE_SIZE);
+
+        for (RtpSender sender : m_senders) {
+            if (sender.getFecSize() == size && !sender.forwardFec(header, data, baseOffset)) {
+                failedSenders.add(sender);
+            }
+        }
+    }
+
+    // Splits off the part of the header the senders need to rewrite and leaves the rest of the packet in data.
+    private static ByteBuffer splitHeader(ByteBuffer data, int headerSize) {
+        ByteBuffer header = data.duplicate();
+        header.limit(headerSize);
+        data.position(headerSize);
+        return header;
+    }
+}
@@ -0,0 +1,14 @@
+package io.hecker.rtp;
+
+import java.util.Iterator;
+
+// A video of known length, which can be streamed from any point in time, forwards or backwards.
+public interface VideoClip {
+    // The timestamp following the last frame.
+    long getDuration();
+
+    // Returns the frames starting at the given timestamp, which is rounded to the nearest frame towards the
+    // direction of play. Scales beyond 1 skip frames, so that fast playback doesn't need more frames per
+    // second than regular one, even for fractional scales. Scales below 0 play backwards.
+    Iterator<VideoFrame> frames(long timestamp, double scale);
+}
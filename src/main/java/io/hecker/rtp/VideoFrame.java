@@ -15,15 +15,15 @@ public class VideoFrame {
         m_timestamp = timestamp;
     }
 
-    RtpPayloadType getPayloadType() {
+    public RtpPayloadType getPayloadType() {
         return m_payloadType;
     }
 
-    ByteBuffer getPayload() {
+    public ByteBuffer getPayload() {
         return m_payload;
     }
 
-    long getTimestamp() {
+    public long getTimestamp() {
         return m_timestamp;
     }
 }
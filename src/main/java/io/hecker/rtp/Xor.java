@@ -0,0 +1,34 @@
+package io.hecker.rtp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+// The XOR kernel shared by FEC generation and recovery.
+final class Xor {
+    private Xor() {
+    }
+
+    // XORs the remaining bytes of src into dst, 8 bytes at a time. Positions and limits are left untouched.
+    // dst must have at least as many remaining bytes as src - the bytes past src's length are left as is.
+    static void xorInto(ByteBuffer dst, ByteBuffer src) {
+        int length = src.remaining();
+        checkArgument(dst.remaining() >= length, "dst too small (%s < %s)", dst.remaining(), length);
+
+        // Both sides have to use the same byte order. The native one avoids byte swapping for direct buffers.
+        ByteBuffer d = dst.duplicate().order(ByteOrder.nativeOrder());
+        ByteBuffer s = src.duplicate().order(ByteOrder.nativeOrder());
+        int dp = d.position();
+        int sp = s.position();
+        int i = 0;
+
+        for (int end = length & ~7; i < end; i += 8) {
+            d.putLong(dp + i, d.getLong(dp + i) ^ s.getLong(sp + i));
+        }
+
+        for (; i < length; ++i) {
+            d.put(dp + i, (byte) (d.get(dp + i) ^ s.get(sp + i)));
+        }
+    }
+}
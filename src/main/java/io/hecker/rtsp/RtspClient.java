@@ -2,6 +2,8 @@ package io.hecker.rtsp;
 
 import com.google.common.net.InetAddresses;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
@@ -20,8 +22,8 @@ public class RtspClient implements Closeable {
 
     public RtspClient(InetSocketAddress address) throws IOException {
         m_socket.connect(address);
-        m_input = new DataInputStream(m_socket.getInputStream());
-        m_output = new DataOutputStream(m_socket.getOutputStream());
+        m_input = new DataInputStream(new BufferedInputStream(m_socket.getInputStream()));
+        m_output = new DataOutputStream(new BufferedOutputStream(m_socket.getOutputStream()));
     }
 
     @Override
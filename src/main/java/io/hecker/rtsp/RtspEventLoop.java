@@ -0,0 +1,317 @@
+package io.hecker.rtsp;
+
+import com.google.common.util.concurrent.AbstractExecutionThreadService;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+// Serves any number of RTSP connections from a single thread using non-blocking I/O.
+//
+// Requests are read into a buffer shared by all connections of the loop and handled as soon as they're complete.
+// Only the incomplete remainder of a request is copied into a buffer owned by its connection,
+// which keeps the memory footprint of idle connections to a minimum.
+//
+// Handlers may block, e.g. on opening a file, and so they're run on the given executor instead of the loop's thread.
+// Their responses are posted back to the loop, like the channels to register. Each connection has at most a single
+// request in flight and doesn't read any further ones meanwhile, so that pipelined requests are answered in order.
+// Requests the executor rejects are answered with 503 Service Unavailable.
+class RtspEventLoop extends AbstractExecutionThreadService {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final int m_index;
+    private final RtspServerHandler m_handler;
+    private final Executor m_handlerExecutor;
+    private final Selector m_selector;
+    // Registrations and handled requests, to be run on the event loop thread
+    private final Queue<Runnable> m_tasks = new ConcurrentLinkedQueue<>();
+
+    // NOTE: Only to be accessed from the event loop thread
+    private final ByteBuffer m_readBuffer = ByteBuffer.allocate(RtspRequestParser.MAX_REQUEST_SIZE);
+
+    RtspEventLoop(int index, RtspServerHandler handler, Executor handlerExecutor) throws IOException {
+        m_index = index;
+        m_handler = handler;
+        m_handlerExecutor = handlerExecutor;
+        m_selector = Selector.open();
+    }
+
+    // Hands the freshly accepted channel over to this event loop. Can be called from any thread.
+    void register(SocketChannel channel) {
+        post(() -> registerChannel(channel));
+    }
+
+    private void post(Runnable task) {
+        m_tasks.add(task);
+        m_selector.wakeup();
+    }
+
+    @Override
+    protected String serviceName() {
+        return "rtsp-event-loop-" + m_index;
+    }
+
+    @Override
+    protected void run() throws Exception {
+        while (isRunning()) {
+            m_selector.select();
+
+            runPendingTasks();
+
+            Iterator<SelectionKey> it = m_selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+
+                Connection connection = (Connection) key.attachment();
+
+                try {
+                    if (key.isReadable()) {
+                        connection.onReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.onWritable();
+                    }
+                } catch (IOException e) {
+                    LOGGER.debug("connection to {} failed", connection.m_remoteAddress, e);
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    private void runPendingTasks() {
+        Runnable task;
+
+        while ((task = m_tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private void registerChannel(SocketChannel channel) {
+        try {
+            channel.configureBlocking(false);
+
+            Connection connection = new Connection(channel);
+            connection.m_key = channel.register(m_selector, SelectionKey.OP_READ, connection);
+
+            LOGGER.info("accepted connection from {}", connection.m_remoteAddress);
+        } catch (IOException e) {
+            LOGGER.error("failed to register connection", e);
+
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    @Override
+    protected void triggerShutdown() {
+        m_selector.wakeup();
+    }
+
+    @Override
+    protected void shutDown() throws Exception {
+        // Registers the channels still pending, so that they get closed below.
+        runPendingTasks();
+
+        for (SelectionKey key : m_selector.keys()) {
+            key.channel().close();
+        }
+
+        m_selector.close();
+    }
+
+    private class Connection {
+        private final SocketChannel m_channel;
+        private final InetSocketAddress m_remoteAddress;
+        private final Queue<ByteBuffer> m_output = new ArrayDeque<>(1);
+
+        private SelectionKey m_key;
+        // The requests received but not yet handled, the last one possibly incomplete, or null.
+        private @Nullable ByteBuffer m_pending;
+        // Whether a request is being handled by the handler executor
+        private boolean m_handling = false;
+        private boolean m_endOfStream = false;
+        private boolean m_closeAfterWrite = false;
+
+        Connection(SocketChannel channel) throws IOException {
+            m_channel = channel;
+            m_remoteAddress = (InetSocketAddress) channel.getRemoteAddress();
+        }
+
+        void onReadable() throws IOException {
+            ByteBuffer buffer = m_readBuffer;
+            buffer.clear();
+
+            if (m_pending != null) {
+                buffer.put(m_pending);
+                m_pending = null;
+            }
+
+            int n = m_channel.read(buffer);
+            buffer.flip();
+
+            if (n < 0) {
+                m_endOfStream = true;
+            }
+
+            handleRequests(buffer);
+
+            if (!m_handling && m_pending != null && m_pending.remaining() == buffer.capacity()) {
+                LOGGER.warn("request from {} exceeds {} bytes", m_remoteAddress, RtspRequestParser.MAX_REQUEST_SIZE);
+                close();
+                return;
+            }
+
+            flush();
+        }
+
+        void onWritable() throws IOException {
+            flush();
+        }
+
+        // Called on the event loop thread once the handler executor is done with the request.
+        void onHandled(RtspIncomingRequest req, RtspOutgoingResponse res) {
+            // The connection might have failed in the meantime.
+            if (!m_key.isValid()) {
+                return;
+            }
+
+            m_handling = false;
+
+            ByteBuffer pending = m_pending;
+            m_pending = null;
+
+            try {
+                respond(req, res);
+                handleRequests(pending != null ? pending : ByteBuffer.allocate(0));
+                flush();
+            } catch (IOException e) {
+                LOGGER.debug("connection to {} failed", m_remoteAddress, e);
+                close();
+            }
+        }
+
+        // Dispatches the next complete request of the buffer, unless one is in flight already,
+        // and keeps the remaining bytes around until it has been handled.
+        private void handleRequests(ByteBuffer buffer) throws IOException {
+            while (!m_handling && !m_closeAfterWrite) {
+                RtspIncomingRequest req;
+
+                try {
+                    req = RtspRequestParser.parse(buffer, m_remoteAddress);
+                } catch (Throwable e) {
+                    // On invalid requests we terminate the connection
+                    buffer.position(buffer.limit());
+                    m_closeAfterWrite = true;
+                    respond(null, RtspServer.createErrorResponse(e));
+                    break;
+                }
+
+                if (req == null) {
+                    break;
+                }
+
+                dispatch(req);
+            }
+
+            if (m_endOfStream && !m_handling) {
+                // Any incomplete request is discarded, but pending responses are still delivered.
+                m_closeAfterWrite = true;
+            }
+
+            if (buffer.hasRemaining() && !m_closeAfterWrite) {
+                // The read buffer is shared by all connections of the loop.
+                if (buffer == m_readBuffer) {
+                    m_pending = ByteBuffer.allocate(buffer.remaining());
+                    m_pending.put(buffer);
+                    m_pending.flip();
+                } else {
+                    m_pending = buffer;
+                }
+            }
+        }
+
+        private void dispatch(RtspIncomingRequest req) throws IOException {
+            m_handling = true;
+
+            try {
+                m_handlerExecutor.execute(() -> {
+                    RtspOutgoingResponse res = new RtspOutgoingResponse();
+
+                    try {
+                        m_handler.accept(req, res);
+                    } catch (Throwable e) {
+                        res = RtspServer.createErrorResponse(e);
+                    }
+
+                    RtspOutgoingResponse response = res;
+                    post(() -> onHandled(req, response));
+                });
+            } catch (RejectedExecutionException e) {
+                LOGGER.warn("too many requests in flight, rejecting request from {}", m_remoteAddress);
+                m_handling = false;
+                respond(req, RtspServer.createErrorResponse(new RtspServerException(RtspStatus.SERVICE_UNAVAILABLE, "too many requests")));
+            }
+        }
+
+        // req is null if the request couldn't be parsed.
+        private void respond(@Nullable RtspIncomingRequest req, RtspOutgoingResponse res) throws IOException {
+            RtspServer.completeResponse(req, res);
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream(256);
+            res.serializeInto(new DataOutputStream(output));
+            m_output.add(ByteBuffer.wrap(output.toByteArray()));
+        }
+
+        // Writes as much of the pending responses as possible and updates the interest set accordingly.
+        // Reading is suspended while responses are pending or a request is in flight, so that clients
+        // can't pile them up.
+        private void flush() throws IOException {
+            while (!m_output.isEmpty()) {
+                ByteBuffer bb = m_output.peek();
+                m_channel.write(bb);
+
+                if (bb.hasRemaining()) {
+                    m_key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+
+                m_output.remove();
+            }
+
+            if (m_closeAfterWrite && !m_handling) {
+                close();
+            } else {
+                m_key.interestOps(m_handling ? 0 : SelectionKey.OP_READ);
+            }
+        }
+
+        void close() {
+            LOGGER.info("closing connection to {}", m_remoteAddress);
+
+            m_key.cancel();
+
+            try {
+                m_channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -1,29 +1,41 @@
 package io.hecker.rtsp;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.TemporalAccessor;
 import java.util.*;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 public class RtspHeaderMap implements Iterable<Map.Entry<RtspHeader, String>> {
+    private static final RtspHeader[] KEYS = RtspHeader.values();
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
 
     private final EnumMap<RtspHeader, String> m_map = new EnumMap<>(RtspHeader.class);
 
+    // Values set using setRaw() are only decoded once they're read. Until then m_rawRanges
+    // holds their [start, end) range within m_raw, packed into a long and indexed by ordinal.
+    private @Nullable byte[] m_raw;
+    private @Nullable long[] m_rawRanges;
+
     RtspHeaderMap() {
     }
 
     public boolean contains(RtspHeader key) {
-        return m_map.containsKey(key);
+        return m_map.containsKey(key) || getRawRange(key) != 0;
     }
 
     public void setIfAbsent(RtspHeader key, String value) {
-        m_map.putIfAbsent(key, value);
+        if (!contains(key)) {
+            m_map.put(key, value);
+        }
     }
 
     public void setDateToNow() {
@@ -35,19 +47,70 @@ public class RtspHeaderMap implements Iterable<Map.Entry<RtspHeader, String>> {
     }
 
     public void set(RtspHeader key, String value) {
+        clearRawRange(key);
         m_map.put(key, value);
     }
 
     public void remove(RtspHeader key) {
+        clearRawRange(key);
         m_map.remove(key);
     }
 
     @Nonnull
     @Override
     public Iterator<Map.Entry<RtspHeader, String>> iterator() {
+        if (m_rawRanges != null) {
+            for (RtspHeader key : KEYS) {
+                decodeRaw(key);
+            }
+        }
+
         return m_map.entrySet().iterator();
     }
 
+    // Sets the value to the ISO-8859-1 encoded bytes [start, end) of raw without decoding them yet.
+    // All raw values of a map have to share the same array. Repeated headers are combined just like in deserializeFrom().
+    void setRaw(RtspHeader key, byte[] raw, int start, int end) {
+        checkArgument(m_raw == null || m_raw == raw, "raw values have to share the same array");
+        checkArgument(start < end, "empty raw value");
+
+        if (contains(key)) {
+            String val = new String(raw, start, end - start, StandardCharsets.ISO_8859_1);
+            m_map.put(key, get(key).get() + ", " + val);
+            return;
+        }
+
+        if (m_rawRanges == null) {
+            m_raw = raw;
+            m_rawRanges = new long[KEYS.length];
+        }
+
+        m_rawRanges[key.ordinal()] = (long) start << 32 | end;
+    }
+
+    private long getRawRange(RtspHeader key) {
+        return m_rawRanges != null ? m_rawRanges[key.ordinal()] : 0;
+    }
+
+    private void clearRawRange(RtspHeader key) {
+        if (m_rawRanges != null) {
+            m_rawRanges[key.ordinal()] = 0;
+        }
+    }
+
+    private void decodeRaw(RtspHeader key) {
+        long range = getRawRange(key);
+        if (range == 0) {
+            return;
+        }
+
+        int start = (int) (range >>> 32);
+        int end = (int) range;
+
+        m_map.put(key, new String(m_raw, start, end - start, StandardCharsets.ISO_8859_1));
+        m_rawRanges[key.ordinal()] = 0;
+    }
+
     void deserializeFrom(DataInput input) throws IOException, RtspServerException {
         while (true) {
             // Get a header line - we do not support line breaks in header lines.
@@ -97,6 +160,7 @@ public class RtspHeaderMap implements Iterable<Map.Entry<RtspHeader, String>> {
     }
 
     public Optional<String> get(RtspHeader key) {
+        decodeRaw(key);
         return Optional.ofNullable(m_map.get(key));
     }
 }
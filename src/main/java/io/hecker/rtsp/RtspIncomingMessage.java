@@ -33,6 +33,10 @@ class RtspIncomingMessage {
         m_body = body;
     }
 
+    void setBody(ByteBuffer body) {
+        m_body = body;
+    }
+
     public RtspHeaderMap headers() {
         return m_headers;
     }
@@ -0,0 +1,354 @@
+package io.hecker.rtsp;
+
+import javax.annotation.Nullable;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Parses RTSP requests directly from the bytes they were received as.
+//
+// Methods and header names are resolved by comparing bytes, without creating any intermediate strings.
+// The request is copied out of the given buffer exactly once and its header values are only decoded once read.
+// Lines may be terminated by either "\r\n" or "\n".
+final class RtspRequestParser {
+    // Requests larger than this are rejected.
+    static final int MAX_REQUEST_SIZE = 64 * 1024;
+
+    private static final RtspMethod[] METHODS = RtspMethod.values();
+    private static final byte[][] METHOD_NAMES;
+    // Header names indexed by their length
+    private static final RtspHeader[][] HEADERS_BY_LENGTH;
+
+    static {
+        METHOD_NAMES = new byte[METHODS.length][];
+
+        for (RtspMethod method : METHODS) {
+            METHOD_NAMES[method.ordinal()] = method.name().getBytes(StandardCharsets.US_ASCII);
+        }
+
+        List<List<RtspHeader>> headersByLength = new ArrayList<>();
+
+        for (RtspHeader header : RtspHeader.values()) {
+            int length = header.toString().length();
+
+            while (headersByLength.size() <= length) {
+                headersByLength.add(new ArrayList<>());
+            }
+
+            headersByLength.get(length).add(header);
+        }
+
+        HEADERS_BY_LENGTH = new RtspHeader[headersByLength.size()][];
+
+        for (int i = 0; i < HEADERS_BY_LENGTH.length; i++) {
+            HEADERS_BY_LENGTH[i] = headersByLength.get(i).toArray(new RtspHeader[0]);
+        }
+    }
+
+    private RtspRequestParser() {
+    }
+
+    // Parses the request at the buffer's position and advances it past the request.
+    // Returns null if the buffer doesn't contain the complete request yet, in which case the position is left as is.
+    @Nullable
+    static RtspIncomingRequest parse(ByteBuffer buffer, InetSocketAddress remoteAddress) throws RtspServerException {
+        int start = buffer.position();
+        int end = buffer.limit();
+
+        int headerEnd = findHeaderEnd(buffer, start, end);
+        if (headerEnd == -1) {
+            return null;
+        }
+
+        //
+        // 1. Locate the header lines and compute the request's length
+        //
+
+        int requestLineEnd = findLineEnd(buffer, start, headerEnd);
+        int contentLength = -1;
+
+        // The [start, end) ranges of each header's name and value.
+        int[] ranges = new int[16];
+        int headerCount = 0;
+
+        for (int i = nextLine(buffer, requestLineEnd); ; ) {
+            int lineEnd = findLineEnd(buffer, i, headerEnd);
+            if (lineEnd == i) {
+                break;
+            }
+
+            int colon = indexOf(buffer, i, lineEnd, (byte) ':');
+            if (colon == -1) {
+                throw new RtspServerException(RtspStatus.BAD_REQUEST, "invalid header line: " + decode(buffer, i, lineEnd));
+            }
+
+            int valueStart = colon + 1;
+            int valueEnd = lineEnd;
+
+            // Equivalent to String.trim()
+            while (valueStart < valueEnd && (buffer.get(valueStart) & 0xff) <= ' ') {
+                valueStart++;
+            }
+            while (valueEnd > valueStart && (buffer.get(valueEnd - 1) & 0xff) <= ' ') {
+                valueEnd--;
+            }
+
+            if (headerCount * 4 == ranges.length) {
+                int[] newRanges = new int[ranges.length * 2];
+                System.arraycopy(ranges, 0, newRanges, 0, ranges.length);
+                ranges = newRanges;
+            }
+
+            ranges[headerCount * 4] = i;
+            ranges[headerCount * 4 + 1] = colon;
+            ranges[headerCount * 4 + 2] = valueStart;
+            ranges[headerCount * 4 + 3] = valueEnd;
+            headerCount++;
+
+            if (matches(buffer, i, colon, RtspHeader.CONTENT_LENGTH)) {
+                contentLength = parseContentLength(buffer, valueStart, valueEnd);
+            }
+
+            i = nextLine(buffer, lineEnd);
+        }
+
+        int requestEnd = headerEnd + Math.max(contentLength, 0);
+        if (requestEnd < headerEnd || requestEnd > end) {
+            return null;
+        }
+
+        //
+        // 2. Parse the request line
+        //
+
+        int methodEnd = indexOf(buffer, start, requestLineEnd, (byte) ' ');
+        int pathEnd = methodEnd == -1 ? -1 : indexOf(buffer, methodEnd + 1, requestLineEnd, (byte) ' ');
+
+        if (pathEnd == -1 || pathEnd == methodEnd + 1 || !isSupportedVersion(buffer, pathEnd + 1, requestLineEnd)) {
+            throw new RtspServerException(RtspStatus.BAD_REQUEST, "invalid request line: " + decode(buffer, start, requestLineEnd));
+        }
+
+        RtspMethod method = parseMethod(buffer, start, methodEnd);
+        if (method == null) {
+            throw new RtspServerException(RtspStatus.BAD_REQUEST, "invalid method: " + decode(buffer, start, methodEnd));
+        }
+
+        String path = parsePath(buffer, methodEnd + 1, pathEnd);
+
+        //
+        // 3. Copy the request out of the buffer and attach the headers and body
+        //
+
+        byte[] bytes = new byte[requestEnd - start];
+        ByteBuffer src = buffer.duplicate();
+        src.limit(requestEnd);
+        src.get(bytes);
+
+        RtspIncomingRequest req = new RtspIncomingRequest(method, path, remoteAddress);
+        RtspHeaderMap headers = req.headers();
+
+        for (int h = 0; h < headerCount; h++) {
+            int nameStart = ranges[h * 4];
+            int nameEnd = ranges[h * 4 + 1];
+            int valueStart = ranges[h * 4 + 2];
+            int valueEnd = ranges[h * 4 + 3];
+
+            if (valueStart == valueEnd) {
+                continue;
+            }
+
+            RtspHeader key = parseHeader(buffer, nameStart, nameEnd);
+            if (key != null) {
+                headers.setRaw(key, bytes, valueStart - start, valueEnd - start);
+            }
+        }
+
+        if (contentLength != -1) {
+            req.setBody(ByteBuffer.wrap(bytes, headerEnd - start, contentLength).slice());
+        }
+
+        buffer.position(requestEnd);
+        return req;
+    }
+
+    // Returns the absolute index right after the empty line terminating the header or -1.
+    private static int findHeaderEnd(ByteBuffer buffer, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) != '\n') {
+                continue;
+            }
+
+            if (i + 1 < end && buffer.get(i + 1) == '\n') {
+                return i + 2;
+            }
+            if (i + 2 < end && buffer.get(i + 1) == '\r' && buffer.get(i + 2) == '\n') {
+                return i + 3;
+            }
+        }
+
+        return -1;
+    }
+
+    // Returns the end of the line starting at i, excluding the line terminator.
+    private static int findLineEnd(ByteBuffer buffer, int i, int end) {
+        int lf = indexOf(buffer, i, end, (byte) '\n');
+        return lf > i && buffer.get(lf - 1) == '\r' ? lf - 1 : lf;
+    }
+
+    // Returns the start of the line following the one ending at lineEnd.
+    private static int nextLine(ByteBuffer buffer, int lineEnd) {
+        return buffer.get(lineEnd) == '\r' ? lineEnd + 2 : lineEnd + 1;
+    }
+
+    private static int indexOf(ByteBuffer buffer, int i, int end, byte b) {
+        for (; i < end; i++) {
+            if (buffer.get(i) == b) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static boolean isSupportedVersion(ByteBuffer buffer, int i, int end) {
+        return end - i == 8
+            && buffer.get(i) == 'R'
+            && buffer.get(i + 1) == 'T'
+            && buffer.get(i + 2) == 'S'
+            && buffer.get(i + 3) == 'P'
+            && buffer.get(i + 4) == '/'
+            && buffer.get(i + 5) == '1'
+            && buffer.get(i + 6) == '.'
+            && (buffer.get(i + 7) == '0' || buffer.get(i + 7) == '1');
+    }
+
+    @Nullable
+    private static RtspMethod parseMethod(ByteBuffer buffer, int start, int end) {
+        outer:
+        for (RtspMethod method : METHODS) {
+            byte[] name = METHOD_NAMES[method.ordinal()];
+
+            if (name.length != end - start) {
+                continue;
+            }
+
+            for (int i = 0; i < name.length; i++) {
+                if (buffer.get(start + i) != name[i]) {
+                    continue outer;
+                }
+            }
+
+            return method;
+        }
+
+        return null;
+    }
+
+    // Header names are matched case-insensitively.
+    @Nullable
+    private static RtspHeader parseHeader(ByteBuffer buffer, int start, int end) {
+        int length = end - start;
+        if (length >= HEADERS_BY_LENGTH.length) {
+            return null;
+        }
+
+        for (RtspHeader header : HEADERS_BY_LENGTH[length]) {
+            if (matches(buffer, start, end, header)) {
+                return header;
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean matches(ByteBuffer buffer, int start, int end, RtspHeader header) {
+        String name = header.toString();
+
+        if (name.length() != end - start) {
+            return false;
+        }
+
+        for (int i = 0; i < name.length(); i++) {
+            int b = buffer.get(start + i);
+
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != name.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int parseContentLength(ByteBuffer buffer, int start, int end) throws RtspServerException {
+        long value = 0;
+
+        for (int i = start; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+
+            if (digit < 0 || digit > 9) {
+                throw new RtspServerException(RtspStatus.BAD_REQUEST, "invalid Content-Length header: " + decode(buffer, start, end));
+            }
+
+            value = value * 10 + digit;
+
+            if (value > MAX_REQUEST_SIZE) {
+                throw new RtspServerException(RtspStatus.REQUEST_ENTITY_TOO_LARGE, "request too large");
+            }
+        }
+
+        if (start == end) {
+            throw new RtspServerException(RtspStatus.BAD_REQUEST, "invalid Content-Length header");
+        }
+
+        return (int) value;
+    }
+
+    // Returns the path of either an absolute "rtsp://host:port/path" or a relative "/path" request URI.
+    private static String parsePath(ByteBuffer buffer, int start, int end) {
+        // Percent-encoded paths are rare enough to leave them to the URI class.
+        if (indexOf(buffer, start, end, (byte) '%') != -1) {
+            String path = decode(buffer, start, end);
+
+            try {
+                return new URI(path).getPath();
+            } catch (URISyntaxException ignored) {
+                return path.startsWith("/") ? path : '/' + path;
+            }
+        }
+
+        int pathStart = start;
+
+        // Skip the scheme and authority of absolute URIs.
+        int colon = indexOf(buffer, start, end, (byte) ':');
+        if (colon != -1 && end - colon >= 3 && buffer.get(colon + 1) == '/' && buffer.get(colon + 2) == '/') {
+            pathStart = indexOf(buffer, colon + 3, end, (byte) '/');
+            if (pathStart == -1) {
+                return "";
+            }
+        }
+
+        int pathEnd = pathStart;
+        while (pathEnd < end && buffer.get(pathEnd) != '?' && buffer.get(pathEnd) != '#') {
+            pathEnd++;
+        }
+
+        return decode(buffer, pathStart, pathEnd);
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
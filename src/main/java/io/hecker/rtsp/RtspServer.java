@@ -3,86 +3,186 @@ package io.hecker.rtsp;
 import com.google.common.util.concurrent.AbstractExecutionThreadService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.Service;
+import com.google.common.util.concurrent.ServiceManager;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.DataInputStream;
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+// Serves RTSP requests either using one thread per connection or, if any
+// event loops are requested, using a fixed number of non-blocking event loops.
+// The latter allows the server to hold a large number of mostly idle connections.
+// Its handlers are run on a bounded pool of threads shared by all event loops.
 public class RtspServer extends AbstractExecutionThreadService {
     private static final Logger LOGGER = LogManager.getLogger();
+    // Handlers mostly wait for I/O, e.g. opening a file.
+    private static final int HANDLER_THREADS = 2 * Runtime.getRuntime().availableProcessors();
+    // Each connection has a single request in flight at most.
+    private static final int MAX_QUEUED_REQUESTS = 1024;
 
-    private final Collection<RtspServerHandler> m_handlers = new ArrayList<>();
-    private final ServerSocket m_serverSocket;
+    private final Collection<RtspServerHandler> m_handlers = new CopyOnWriteArrayList<>();
+    private final ServerSocketChannel m_serverChannel;
+    private final List<RtspEventLoop> m_eventLoops = new ArrayList<>();
+    private final @Nullable ServiceManager m_eventLoopManager;
+    private final @Nullable ExecutorService m_handlerExecutor;
+    private int m_nextEventLoop = 0;
 
     protected RtspServer(InetSocketAddress address) throws IOException {
-        m_serverSocket = new ServerSocket(address.getPort(), 0, address.getAddress());
+        this(address, 0);
     }
 
+    protected RtspServer(InetSocketAddress address, int eventLoopCount) throws IOException {
+        checkArgument(eventLoopCount >= 0, "Expected eventLoopCount to be >= 0 but was %s", eventLoopCount);
+
+        // The channel is used in blocking mode for accept() in both modes.
+        // Its socket() is equivalent to the plain ServerSocket used previously.
+        m_serverChannel = ServerSocketChannel.open();
+
+        try {
+            m_serverChannel.bind(address);
+        } catch (Throwable e) {
+            m_serverChannel.close();
+            throw e;
+        }
+
+        m_handlerExecutor = eventLoopCount > 0 ? new ThreadPoolExecutor(
+            HANDLER_THREADS,
+            HANDLER_THREADS,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED_REQUESTS),
+            new ThreadFactoryBuilder().setNameFormat("rtsp-handler-%d").setDaemon(true).build()
+        ) : null;
+
+        for (int i = 0; i < eventLoopCount; i++) {
+            m_eventLoops.add(new RtspEventLoop(i, this::handle, m_handlerExecutor));
+        }
+
+        m_eventLoopManager = eventLoopCount > 0 ? new ServiceManager(m_eventLoops) : null;
+    }
+
+    // Handlers are called concurrently, from any thread.
     protected void addHandler(RtspServerHandler handler) {
-        synchronized (m_handlers) {
-            m_handlers.add(handler);
+        m_handlers.add(handler);
+    }
+
+    @Override
+    protected void startUp() {
+        if (m_eventLoopManager != null) {
+            m_eventLoopManager.startAsync().awaitHealthy();
         }
     }
 
     protected void run() {
         while (true) {
-            Socket socket;
+            SocketChannel channel;
 
             try {
-                socket = m_serverSocket.accept();
+                channel = m_serverChannel.accept();
             } catch (IOException e) {
                 break;
             }
 
-            LOGGER.info("accepted connection from {}", socket.getRemoteSocketAddress());
-
-            Service connection;
-            try {
-                connection = new Connection(socket);
-            } catch (IOException e) {
-                e.printStackTrace();
-                continue;
+            if (m_eventLoops.isEmpty()) {
+                spawnConnection(channel.socket());
+            } else {
+                RtspEventLoop eventLoop = m_eventLoops.get(m_nextEventLoop);
+                m_nextEventLoop = (m_nextEventLoop + 1) % m_eventLoops.size();
+                eventLoop.register(channel);
             }
+        }
+    }
 
-            connection.addListener(new Listener() {
-                @Override
-                public void failed(State from, Throwable failure) {
-                    LOGGER.error("connection service failed", failure);
-                }
-            }, MoreExecutors.directExecutor());
-            connection.startAsync();
+    private void spawnConnection(Socket socket) {
+        LOGGER.info("accepted connection from {}", socket.getRemoteSocketAddress());
+
+        Service connection;
+        try {
+            connection = new Connection(socket);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
         }
+
+        connection.addListener(new Listener() {
+            @Override
+            public void failed(State from, Throwable failure) {
+                LOGGER.error("connection service failed", failure);
+            }
+        }, MoreExecutors.directExecutor());
+        connection.startAsync();
     }
 
     private void handle(RtspIncomingRequest req, RtspOutgoingResponse res) throws Exception {
         LOGGER.info("handling method={} path={}", req.getMethod(), req.getPath());
 
-        synchronized (m_handlers) {
-            for (RtspServerHandler handler : m_handlers) {
-                handler.accept(req, res);
-            }
+        for (RtspServerHandler handler : m_handlers) {
+            handler.accept(req, res);
         }
 
         LOGGER.info("handled method={} path={} status={}", req.getMethod(), req.getPath(), res.getStatus().code());
     }
 
+    static RtspOutgoingResponse createErrorResponse(Throwable e) {
+        RtspStatus status = RtspStatus.INTERNAL_SERVER_ERROR;
+        if (e instanceof RtspServerException) {
+            status = ((RtspServerException) e).getStatus();
+        }
+
+        RtspOutgoingResponse res = new RtspOutgoingResponse();
+        res.setStatus(status);
+        res.setBody(e.getMessage());
+        return res;
+    }
+
+    // Adds the headers every response carries. req is null if the request couldn't be parsed.
+    static void completeResponse(@Nullable RtspIncomingRequest req, RtspOutgoingResponse res) {
+        if (req != null) {
+            res.headers().copySelectionFrom(req.headers(), RtspHeader.CSEQ);
+        }
+
+        res.headers().setIfAbsent(RtspHeader.CONTENT_TYPE, "text/plain");
+        res.headers().setDateToNow();
+    }
+
     private class Connection extends AbstractExecutionThreadService {
+        private static final int INITIAL_BUFFER_SIZE = 1024;
+
         private final Socket m_socket;
-        private final DataInputStream m_input;
+        private final InetSocketAddress m_remoteAddress;
+        private final InputStream m_input;
         private final DataOutputStream m_output;
 
+        // Holds the received but not yet parsed bytes between its position and limit.
+        private ByteBuffer m_buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
         Connection(Socket socket) throws IOException {
             m_socket = socket;
-            m_input = new DataInputStream(socket.getInputStream());
-            m_output = new DataOutputStream(socket.getOutputStream());
+            m_remoteAddress = (InetSocketAddress) socket.getRemoteSocketAddress();
+            m_input = socket.getInputStream();
+            m_output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            m_buffer.flip();
         }
 
         protected void run() throws Exception {
@@ -91,27 +191,15 @@ public class RtspServer extends AbstractExecutionThreadService {
                 RtspOutgoingResponse res = new RtspOutgoingResponse();
 
                 try {
-                    req = new RtspIncomingRequest(m_input, (InetSocketAddress) m_socket.getRemoteSocketAddress());
+                    req = readRequest();
                     handle(req, res);
                 } catch (EOFException e) {
                     break;
                 } catch (Throwable e) {
-                    RtspStatus status = RtspStatus.INTERNAL_SERVER_ERROR;
-                    if (e instanceof RtspServerException) {
-                        status = ((RtspServerException) e).getStatus();
-                    }
-
-                    res = new RtspOutgoingResponse();
-                    res.setStatus(status);
-                    res.setBody(e.getMessage());
+                    res = createErrorResponse(e);
                 }
 
-                if (req != null) {
-                    res.headers().copySelectionFrom(req.headers(), RtspHeader.CSEQ);
-                }
-
-                res.headers().setIfAbsent(RtspHeader.CONTENT_TYPE, "text/plain");
-                res.headers().setDateToNow();
+                completeResponse(req, res);
 
                 res.serializeInto(m_output);
 
@@ -124,6 +212,36 @@ public class RtspServer extends AbstractExecutionThreadService {
             }
         }
 
+        private RtspIncomingRequest readRequest() throws IOException {
+            while (true) {
+                RtspIncomingRequest req = RtspRequestParser.parse(m_buffer, m_remoteAddress);
+                if (req != null) {
+                    return req;
+                }
+
+                m_buffer.compact();
+
+                if (!m_buffer.hasRemaining()) {
+                    if (m_buffer.capacity() >= RtspRequestParser.MAX_REQUEST_SIZE) {
+                        throw new RtspServerException(RtspStatus.REQUEST_ENTITY_TOO_LARGE, "request too large");
+                    }
+
+                    ByteBuffer buffer = ByteBuffer.allocate(Math.min(2 * m_buffer.capacity(), RtspRequestParser.MAX_REQUEST_SIZE));
+                    m_buffer.flip();
+                    buffer.put(m_buffer);
+                    m_buffer = buffer;
+                }
+
+                int n = m_input.read(m_buffer.array(), m_buffer.arrayOffset() + m_buffer.position(), m_buffer.remaining());
+                if (n < 0) {
+                    throw new EOFException();
+                }
+
+                m_buffer.position(m_buffer.position() + n);
+                m_buffer.flip();
+            }
+        }
+
         @Override
         protected void triggerShutdown() {
             try {
@@ -141,7 +259,7 @@ public class RtspServer extends AbstractExecutionThreadService {
     @Override
     protected void triggerShutdown() {
         try {
-            m_serverSocket.close();
+            m_serverChannel.close();
         } catch (Throwable ignored) {
         }
     }
@@ -149,7 +267,17 @@ public class RtspServer extends AbstractExecutionThreadService {
 
     @Override
     protected void shutDown() throws Exception {
-        m_serverSocket.close();
+        try {
+            m_serverChannel.close();
+        } finally {
+            if (m_eventLoopManager != null) {
+                m_eventLoopManager.stopAsync().awaitStopped();
+            }
+
+            if (m_handlerExecutor != null) {
+                m_handlerExecutor.shutdownNow();
+            }
+        }
     }
 
 
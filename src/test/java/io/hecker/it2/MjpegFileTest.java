@@ -0,0 +1,88 @@
+package io.hecker.it2;
+
+import io.hecker.rtp.VideoFrame;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MjpegFileTest {
+    private static final int FRAME_COUNT = 250;
+    private static final int FRAME_SIZE = 100;
+
+    @Test
+    public void testScaleSkipsFramesByAccumulatedScale() throws IOException {
+        MjpegFile clip = createClip();
+
+        assertEquals(timestamps(0, 40, 120, 160, 240), first(clip.frames(0, 1.5), 5));
+        assertEquals(timestamps(0, 80, 160, 240, 320), first(clip.frames(0, 2), 5));
+        assertEquals(timestamps(400, 360, 280, 240, 160), first(clip.frames(400, -1.5), 5));
+    }
+
+    @Test
+    public void testSlowMotionDoesntRepeatFrames() throws IOException {
+        MjpegFile clip = createClip();
+
+        assertEquals(timestamps(0, 40, 80, 120, 160), first(clip.frames(0, 0.5), 5));
+    }
+
+    @Test
+    public void testFractionalScalesDontRaiseFrameRate() throws IOException {
+        MjpegFile clip = createClip();
+        long duration = clip.getDuration();
+        int regularCount = count(clip.frames(0, 1));
+
+        for (double scale : new double[]{1.4, 2.4, -1.4, -2.4}) {
+            // Playback at the scale takes 1 / |scale| of the regular time, in which regular playback sends
+            // 1 / |scale| of the frames.
+            int count = count(clip.frames(scale > 0 ? 0 : duration, scale));
+            int maxCount = (int) Math.ceil(regularCount / Math.abs(scale));
+
+            assertTrue("scale " + scale + " sent " + count + " frames, expected at most " + maxCount, count <= maxCount);
+        }
+    }
+
+    private static MjpegFile createClip() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            out.write(String.format("%05d", FRAME_SIZE).getBytes(StandardCharsets.US_ASCII));
+            out.write(new byte[FRAME_SIZE]);
+        }
+
+        return MjpegFile.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static List<Long> timestamps(long... timestamps) {
+        List<Long> list = new ArrayList<>();
+        for (long timestamp : timestamps) {
+            list.add(timestamp);
+        }
+        return list;
+    }
+
+    private static List<Long> first(Iterator<VideoFrame> frames, int count) {
+        List<Long> timestamps = new ArrayList<>();
+        while (frames.hasNext() && timestamps.size() < count) {
+            timestamps.add(frames.next().getTimestamp());
+        }
+        return timestamps;
+    }
+
+    private static int count(Iterator<VideoFrame> frames) {
+        int count = 0;
+        while (frames.hasNext()) {
+            frames.next();
+            count++;
+        }
+        return count;
+    }
+}
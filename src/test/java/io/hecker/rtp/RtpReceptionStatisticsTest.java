@@ -0,0 +1,57 @@
+package io.hecker.rtp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class RtpReceptionStatisticsTest {
+    private static final long SYNCHRONIZATION_SOURCE = 0x12345678L;
+
+    @Test
+    public void testLateDuplicateDoesntResetStatistics() {
+        RtpReceptionStatistics statistics = new RtpReceptionStatistics();
+
+        receive(statistics, 1000, 1500);
+        assertEquals(0, statistics.createReportBlock(0, 0, 0).getFractionLost());
+
+        // More than MAX_MISORDER packets late, e.g. a duplicate or a late retransmission.
+        receive(statistics, 1300, 1301);
+        receive(statistics, 1500, 2000);
+
+        RtcpReportBlock block = statistics.createReportBlock(0, 0, 0);
+        assertEquals(0, block.getFractionLost());
+        assertEquals(0, block.getCumulativePacketsLost());
+        assertEquals(1999, block.getExtendedHighestSequenceNumber());
+    }
+
+    @Test
+    public void testConfirmedJumpRestartsStatistics() {
+        RtpReceptionStatistics statistics = new RtpReceptionStatistics();
+
+        receive(statistics, 1000, 1500);
+        statistics.createReportBlock(0, 0, 0);
+
+        // Two packets in sequence after a very large jump are a restart of the source.
+        receive(statistics, 30000, 30100);
+
+        RtcpReportBlock block = statistics.createReportBlock(0, 0, 0);
+        assertEquals(0, block.getFractionLost());
+        assertEquals(0, block.getCumulativePacketsLost());
+        assertEquals(30099, block.getExtendedHighestSequenceNumber());
+    }
+
+    // Receives the packets from the first sequence number up to, but excluding, the last one.
+    private static void receive(RtpReceptionStatistics statistics, int first, int last) {
+        for (int sequenceNumber = first; sequenceNumber < last; sequenceNumber++) {
+            statistics.onPacketReceived(RtpRegularPacket.builder()
+                .withSequenceNumber(sequenceNumber)
+                .withSynchronizationSource(SYNCHRONIZATION_SOURCE)
+                .withTimestamp(sequenceNumber)
+                .withPayloadType(RtpPayloadType.JPEG)
+                .withPayload(ByteBuffer.allocate(0))
+                .build());
+        }
+    }
+}